@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Adjusts the lanes, exchanges in flight, of a consumer and the batch size of
+ * its cursor from the observed tail lag, processing latency and error rate.
+ * 
+ * Runs every <code>adaptiveInterval</code> milliseconds with an AIMD policy:
+ * <ul>
+ * <li>errors above <code>adaptiveErrorRateThreshold</code>, or a processing
+ * latency over twice its healthy baseline, halve the lanes and the batch
+ * size.</li>
+ * <li>a tail lag over <code>adaptiveLagThreshold</code> (backlog) adds one
+ * lane and doubles the batch size.</li>
+ * <li>a tail lag under half of it (caught up) halves the batch size, so small
+ * batches keep latency low while idle.</li>
+ * </ul>
+ * Backlog and caught up must hold for <code>HYSTERESIS_TICKS</code> runs in
+ * a row before acting on them. Values stay within configured bounds and can
+ * be pinned through JMX.
+ * 
+ * Tail lag is the time between the last event dispatched and the newest event
+ * in the collection, so the time between arrivals does not count. It is only
+ * known for <code>ObjectId</code> identifiers.
+ */
+public class MongoTCAdaptiveController implements Runnable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCAdaptiveController.class);
+
+	public static final int MIN_CURSOR_BATCH_SIZE = 16;
+
+	/**
+	 * Weight of the last interval in the latency baseline
+	 */
+	private static final double BASELINE_WEIGHT = 0.2;
+
+	/**
+	 * Runs in a row a backlog, or being caught up, must be observed
+	 */
+	private static final int HYSTERESIS_TICKS = 2;
+
+	private static final Document NEWEST_FIRST = new Document("$natural", -1);
+	private static final Document ID_ONLY = new Document(
+			MongoTCTailingTask.ID_FIELD, 1);
+
+	private final AdjustableSemaphore demand;
+	private final MongoTCTailingTask tailingTask;
+	private final MongoCollection<Document> eventsCollection;
+	private final int minLanes;
+	private final int maxLanes;
+	private final int maxCursorBatchSize;
+	private final long lagThreshold;
+	private final double errorRateThreshold;
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private volatile Object lastDispatchedId;
+
+	private volatile int lanes;
+	private volatile int cursorBatchSize;
+	private volatile boolean pinned;
+	private volatile long tailLag;
+	private volatile long averageLatencyNanos;
+	private volatile double errorRate;
+	private long baselineLatencyNanos;
+	private int backlogTicks;
+	private int caughtUpTicks;
+
+	/**
+	 * @param tailingTask
+	 *            the consumer own tailing task, null if the cursor is shared
+	 *            and its batch size is not adjusted.
+	 */
+	public MongoTCAdaptiveController(AdjustableSemaphore demand,
+			MongoTCTailingTask tailingTask, MongoTCConfiguration configuration) {
+		this.demand = demand;
+		this.tailingTask = tailingTask;
+		this.eventsCollection = configuration.getEventsCollection();
+		this.minLanes = configuration.getMinInflight();
+		this.maxLanes = configuration.getMaxInflight();
+		this.maxCursorBatchSize = configuration.getMaxCursorBatchSize();
+		this.lagThreshold = configuration.getAdaptiveLagThreshold();
+		this.errorRateThreshold = configuration.getAdaptiveErrorRateThreshold();
+
+		// Start as fast as possible for an idle system
+		this.lanes = maxLanes;
+		this.cursorBatchSize = MIN_CURSOR_BATCH_SIZE;
+		if (tailingTask != null)
+			tailingTask.setBatchSize(cursorBatchSize);
+	}
+
+	public void recordDispatched(Object id) {
+		lastDispatchedId = id;
+	}
+
+	public void recordCompleted(long latencyNanos, boolean failure) {
+		completed.incrementAndGet();
+		totalLatencyNanos.addAndGet(latencyNanos);
+		if (failure)
+			failed.incrementAndGet();
+	}
+
+	@Override
+	public void run() {
+
+		long intervalCompleted = completed.getAndSet(0);
+		long intervalFailed = failed.getAndSet(0);
+		long intervalLatency = totalLatencyNanos.getAndSet(0);
+
+		averageLatencyNanos = (intervalCompleted == 0) ? 0 : intervalLatency
+				/ intervalCompleted;
+		errorRate = (intervalCompleted == 0) ? 0 : (double) intervalFailed
+				/ intervalCompleted;
+		tailLag = measureTailLag();
+		if (tailLag > lagThreshold) {
+			backlogTicks++;
+			caughtUpTicks = 0;
+		} else if (tailLag <= lagThreshold / 2) {
+			caughtUpTicks++;
+			backlogTicks = 0;
+		} else {
+			backlogTicks = 0;
+			caughtUpTicks = 0;
+		}
+
+		if (pinned)
+			return;
+
+		boolean degraded = errorRate > errorRateThreshold
+				|| (baselineLatencyNanos > 0 && averageLatencyNanos > 2 * baselineLatencyNanos);
+		if (degraded) {
+			setLanes(Math.max(minLanes, lanes / 2));
+			setCursorBatchSize(cursorBatchSize / 2);
+		} else {
+			if (averageLatencyNanos > 0)
+				baselineLatencyNanos = (baselineLatencyNanos == 0) ? averageLatencyNanos
+						: (long) ((1 - BASELINE_WEIGHT) * baselineLatencyNanos + BASELINE_WEIGHT
+								* averageLatencyNanos);
+			if (backlogTicks >= HYSTERESIS_TICKS) {
+				setLanes(Math.min(maxLanes, lanes + 1));
+				setCursorBatchSize(cursorBatchSize * 2);
+			} else if (caughtUpTicks >= HYSTERESIS_TICKS) {
+				setCursorBatchSize(cursorBatchSize / 2);
+			}
+		}
+		LOG.trace(
+				"+ MongoTC - Adaptive controller. Lag: {} ms, latency: {} us, error rate: {}, lanes: {}, batch size: {}",
+				new Object[] { tailLag,
+						TimeUnit.NANOSECONDS.toMicros(averageLatencyNanos),
+						errorRate, lanes, cursorBatchSize });
+	}
+
+	/**
+	 * @return milliseconds between the last event dispatched and the newest
+	 *         event in the collection, 0 if dispatched or not known. A
+	 *         multiple of 1000: <code>ObjectId</code> timestamps are in
+	 *         seconds.
+	 */
+	private long measureTailLag() {
+		Object last = lastDispatchedId;
+		if (!(last instanceof ObjectId))
+			return 0;
+		Document newest;
+		try {
+			newest = eventsCollection.find().sort(NEWEST_FIRST)
+					.projection(ID_ONLY).first();
+		} catch (RuntimeException e) {
+			LOG.debug("+ MongoTC - Unable to read the newest event", e);
+			return tailLag;
+		}
+		Object newestId = (newest == null) ? null : newest
+				.get(MongoTCTailingTask.ID_FIELD);
+		if (!(newestId instanceof ObjectId)
+				|| !MongoTCTailingTask.isBefore(last, newestId))
+			return 0;
+		return Math.max(0, (((ObjectId) newestId).getTimestamp() - ((ObjectId) last)
+				.getTimestamp()) * 1000L);
+	}
+
+	public int getLanes() {
+		return lanes;
+	}
+
+	public synchronized void setLanes(int lanes) {
+		int delta = lanes - this.lanes;
+		if (delta > 0)
+			demand.release(delta);
+		else if (delta < 0)
+			demand.reducePermits(-delta);
+		this.lanes = lanes;
+	}
+
+	public int getCursorBatchSize() {
+		return cursorBatchSize;
+	}
+
+	public void setCursorBatchSize(int cursorBatchSize) {
+		int bounded = Math.max(MIN_CURSOR_BATCH_SIZE,
+				Math.min(maxCursorBatchSize, cursorBatchSize));
+		if (bounded == this.cursorBatchSize)
+			return;
+		this.cursorBatchSize = bounded;
+		if (tailingTask != null)
+			tailingTask.setBatchSize(bounded);
+	}
+
+	public boolean isPinned() {
+		return pinned;
+	}
+
+	public void setPinned(boolean pinned) {
+		this.pinned = pinned;
+	}
+
+	public long getTailLag() {
+		return tailLag;
+	}
+
+	public long getAverageLatencyNanos() {
+		return averageLatencyNanos;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * A semaphore whose permits can also be taken away.
+	 */
+	public static class AdjustableSemaphore extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		public AdjustableSemaphore(int permits) {
+			super(permits);
+		}
+
+		@Override
+		public void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the checkpoint of a consumer: the <code>_id</code> of the last
+ * document such that it, and every document dispatched before it, has
+ * completed. Documents are dispatched in cursor order, from a single thread,
+ * but may complete in any order and from any thread.
+ * 
+ * Dispatched documents get consecutive sequences and are recorded in a ring
+ * of <code>window</code> slots. Completions are flagged in the ring and the
+ * low-water mark, the last contiguous completed sequence, advances with a CAS.
+ * Both operations are lock-free and O(1) amortized. The dispatcher must wait
+ * for {@link #hasCapacity()} so that a slot is never reused before the mark
+ * has passed it.
+ */
+public class MongoTCCheckpointTracker {
+
+	private final int mask;
+	private final AtomicReferenceArray<Object> ids;
+	private final AtomicLongArray completedSequences;
+
+	/**
+	 * Last contiguous completed sequence
+	 */
+	private final AtomicLong lowWaterMark = new AtomicLong(-1);
+
+	/**
+	 * Last sequence returned by {@link #takeCheckpointToPersist()}
+	 */
+	private final AtomicLong persistedSequence = new AtomicLong(-1);
+
+	private final Object initialCheckpoint;
+
+	// Written by the dispatcher thread only
+	private volatile long nextSequence;
+
+	/**
+	 * @param window
+	 *            maximum distance between the low-water mark and the last
+	 *            dispatched document. Rounded up to a power of two.
+	 * @param initialCheckpoint
+	 *            checkpoint before any document completes, usually the last
+	 *            tracked id read at start.
+	 */
+	public MongoTCCheckpointTracker(int window, Object initialCheckpoint) {
+		int capacity = Integer.highestOneBit(Math.max(window, 2) - 1) << 1;
+		this.mask = capacity - 1;
+		this.ids = new AtomicReferenceArray<Object>(capacity);
+		this.completedSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++)
+			completedSequences.set(i, -1);
+		this.initialCheckpoint = initialCheckpoint;
+	}
+
+	/**
+	 * @return true if one more document can be dispatched
+	 */
+	public boolean hasCapacity() {
+		return nextSequence - lowWaterMark.get() <= mask;
+	}
+
+	/**
+	 * Must be called from a single thread, once {@link #hasCapacity()}.
+	 * 
+	 * @return the sequence to be completed once the document is processed
+	 */
+	public long dispatched(Object id) {
+		long sequence = nextSequence;
+		ids.set(slot(sequence), id);
+		nextSequence = sequence + 1;
+		return sequence;
+	}
+
+	public void completed(long sequence) {
+		completedSequences.set(slot(sequence), sequence);
+
+		// Advance the low-water mark over every contiguous completion. Any
+		// thread may do it: a completion seen by none is seen by its own
+		// completer after setting the flag.
+		for (;;) {
+			long mark = lowWaterMark.get();
+			long next = mark + 1;
+			if (completedSequences.get(slot(next)) != next)
+				return;
+			lowWaterMark.compareAndSet(mark, next);
+		}
+	}
+
+	public long getLowWaterMark() {
+		return lowWaterMark.get();
+	}
+
+	public Object getCheckpoint() {
+		for (;;) {
+			long mark = lowWaterMark.get();
+			Object checkpoint = checkpointAt(mark);
+			// The slot cannot have been reused while the mark stood still
+			if (lowWaterMark.get() == mark)
+				return checkpoint;
+		}
+	}
+
+	/**
+	 * @return the checkpoint if the low-water mark advanced since the last
+	 *         call, null otherwise. Only one caller gets each checkpoint.
+	 */
+	public Object takeCheckpointToPersist() {
+		for (;;) {
+			long persisted = persistedSequence.get();
+			long mark = lowWaterMark.get();
+			if (mark <= persisted)
+				return null;
+			Object checkpoint = checkpointAt(mark);
+			if (lowWaterMark.get() != mark)
+				continue;
+			if (persistedSequence.compareAndSet(persisted, mark))
+				return checkpoint;
+		}
+	}
+
+	/**
+	 * @return documents dispatched but not yet covered by the checkpoint
+	 */
+	public int getPending() {
+		return (int) (nextSequence - 1 - lowWaterMark.get());
+	}
+
+	private Object checkpointAt(long mark) {
+		return (mark < 0) ? initialCheckpoint : ids.get(slot(mark));
+	}
+
+	private int slot(long sequence) {
+		return (int) (sequence & mask);
+	}
+}
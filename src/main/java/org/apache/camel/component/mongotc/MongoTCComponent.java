@@ -16,7 +16,13 @@
  */
 package org.apache.camel.component.mongotc;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.CamelContext;
 import org.apache.camel.Endpoint;
@@ -28,6 +34,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
 
 /**
  * Represents the component that manages {@link MongoTCEndpoint}s.
@@ -37,6 +45,67 @@ public class MongoTCComponent extends UriEndpointComponent {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(MongoTCComponent.class);
 
+	public static final long DEFAULT_CHECKPOINT_FLUSH_INTERVAL = 1000;
+	public static final int DEFAULT_DELIVERY_POOL_SIZE = 10;
+
+	/**
+	 * Tailing tasks shared by the endpoints with <code>sharedCursor</code>
+	 * enabled, keyed by connection bean, tailing client, database and
+	 * collection.
+	 */
+	private final Map<String, MongoTCTailingTask> sharedTailingTasks = new HashMap<String, MongoTCTailingTask>();
+
+	/**
+	 * Sizing advisors, one per collection with consumers that enable it, and
+	 * their scheduled runs.
+	 */
+	private final Map<String, MongoTCSizingAdvisor> sizingAdvisors = new HashMap<String, MongoTCSizingAdvisor>();
+	private final Map<String, ScheduledFuture<?>> sizingAdvisorFutures = new HashMap<String, ScheduledFuture<?>>();
+
+	/**
+	 * Tracker services, one per connection bean and database, and their
+	 * scheduled flushes.
+	 */
+	private final Map<String, MongoTCTrackerService> trackerServices = new HashMap<String, MongoTCTrackerService>();
+	private final Map<String, ScheduledFuture<?>> trackerServiceFutures = new HashMap<String, ScheduledFuture<?>>();
+
+	/**
+	 * Clients created for the endpoints with <code>tailingPoolSize</code> or
+	 * <code>trackingPoolSize</code>, keyed by source bean, use and size.
+	 */
+	private final Map<String, MongoClient> dedicatedClients = new HashMap<String, MongoClient>();
+
+	/**
+	 * Milliseconds between bulk writes of the checkpoints of every consumer.
+	 * 0 writes each checkpoint as soon as it is taken.
+	 */
+	private long checkpointFlushInterval = DEFAULT_CHECKPOINT_FLUSH_INTERVAL;
+
+	/**
+	 * Threads delivering the buffered documents of shared cursor subscribers
+	 * to their routes.
+	 */
+	private int deliveryPoolSize = DEFAULT_DELIVERY_POOL_SIZE;
+
+	/**
+	 * Runs the tailing tasks of every consumer: one thread blocked per shared
+	 * cursor, per consumer with a cursor of its own and per subscriber
+	 * catching up. Threads are created on demand and reused once a consumer
+	 * stops. Endpoints sharing a cursor share its thread.
+	 */
+	private ExecutorService tailingExecutor;
+
+	/**
+	 * Runs the deliveries of every shared cursor subscriber. A subscriber
+	 * holds a thread only while it has documents to deliver.
+	 */
+	private ExecutorService deliveryExecutor;
+
+	/**
+	 * Runs the periodic tasks of every consumer.
+	 */
+	private ScheduledExecutorService scheduledExecutor;
+
 	public MongoTCComponent() {
 		super(MongoTCEndpoint.class);
 	}
@@ -78,6 +147,22 @@ public class MongoTCComponent extends UriEndpointComponent {
 				getCamelContext(), remaining, MongoClient.class);
 		config.setMongoClient(mongoClient);
 
+		// Tailable cursors and tracker writes may use their own clients
+		if (config.getTailingPoolSize() > 0)
+			config.setTailingMongoClient(getDedicatedClient(remaining,
+					mongoClient, "tailing", config.getTailingPoolSize()));
+		String trackingBean = remaining;
+		MongoClient trackingClient = mongoClient;
+		if (config.getTrackingConnectionBean() != null) {
+			trackingBean = config.getTrackingConnectionBean();
+			trackingClient = CamelContextHelper.mandatoryLookup(
+					getCamelContext(), trackingBean, MongoClient.class);
+			config.setTrackingMongoClient(trackingClient);
+		}
+		if (config.getTrackingPoolSize() > 0)
+			config.setTrackingMongoClient(getDedicatedClient(trackingBean,
+					trackingClient, "tracking", config.getTrackingPoolSize()));
+
 		// Before the endpoint is built check configuration is valid
 		config.isValid();
 		
@@ -96,6 +181,309 @@ public class MongoTCComponent extends UriEndpointComponent {
 		endpoint.setConfiguration(config);
 		endpoint.setConnectionBean(remaining);
 
+		// Known consumer tasks are read together when the first one starts
+		if (config.isPersistentTrackingEnable()) {
+			MongoTCTrackerService trackerService = getTrackerService(endpoint);
+			if (config.getPriorityCollections() != null) {
+				for (String collection : MongoTCPriorityDispatcher
+						.collectionNames(config))
+					trackerService.register(MongoTCPriorityDispatcher
+							.trackerId(config, collection));
+			} else {
+				trackerService.register(config
+						.getPersistentTrackingConfiguration().getConsumerId());
+			}
+		}
+
 		return endpoint;
 	}
+
+	public synchronized ExecutorService getTailingExecutor() {
+		if (tailingExecutor == null)
+			tailingExecutor = getCamelContext().getExecutorServiceManager()
+					.newCachedThreadPool(this, "MongoTC Tailing");
+		return tailingExecutor;
+	}
+
+	/**
+	 * Runs a tailing task on a thread of its own.
+	 */
+	public void executeTailing(Runnable tailingTask) {
+		getTailingExecutor().execute(tailingTask);
+	}
+
+	public synchronized ExecutorService getDeliveryExecutor() {
+		if (deliveryExecutor == null)
+			deliveryExecutor = getCamelContext().getExecutorServiceManager()
+					.newFixedThreadPool(this, "MongoTC Delivery",
+							deliveryPoolSize);
+		return deliveryExecutor;
+	}
+
+	public int getDeliveryPoolSize() {
+		return deliveryPoolSize;
+	}
+
+	public void setDeliveryPoolSize(int deliveryPoolSize) {
+		this.deliveryPoolSize = deliveryPoolSize;
+	}
+
+	public synchronized ScheduledExecutorService getScheduledExecutor() {
+		if (scheduledExecutor == null)
+			scheduledExecutor = getCamelContext().getExecutorServiceManager()
+					.newSingleThreadScheduledExecutor(this, "MongoTC Scheduler");
+		return scheduledExecutor;
+	}
+
+	public long getCheckpointFlushInterval() {
+		return checkpointFlushInterval;
+	}
+
+	public void setCheckpointFlushInterval(long checkpointFlushInterval) {
+		this.checkpointFlushInterval = checkpointFlushInterval;
+	}
+
+	/**
+	 * @return the tracker service of the endpoint database. The first call
+	 *         schedules its flushes.
+	 */
+	public synchronized MongoTCTrackerService getTrackerService(
+			MongoTCEndpoint endpoint) {
+
+		MongoTCConfiguration config = endpoint.getConfiguration();
+		String key = buildTrackingKey(endpoint);
+		MongoTCTrackerService trackerService = trackerServices.get(key);
+		if (trackerService == null) {
+			trackerService = new MongoTCTrackerService(config
+					.getTrackingMongoDatabase().getCollection(
+							MongoTCPersistentTrackingConfiguration.TRACKER_COLLECTION_NAME),
+					checkpointFlushInterval > 0);
+			if (checkpointFlushInterval > 0)
+				trackerServiceFutures.put(key, getScheduledExecutor()
+						.scheduleWithFixedDelay(trackerService,
+								checkpointFlushInterval,
+								checkpointFlushInterval, TimeUnit.MILLISECONDS));
+			trackerServices.put(key, trackerService);
+		}
+		return trackerService;
+	}
+
+	/**
+	 * @return a client with the settings and credentials of the source bean
+	 *         and its own pool of <code>poolSize</code> connections per host,
+	 *         shared by the endpoints asking for the same one.
+	 */
+	private synchronized MongoClient getDedicatedClient(String bean,
+			MongoClient source, String use, int poolSize) {
+
+		String key = bean + "/" + use + "/" + poolSize;
+		MongoClient client = dedicatedClients.get(key);
+		if (client == null) {
+			MongoClientOptions options = MongoClientOptions
+					.builder(source.getMongoClientOptions())
+					.connectionsPerHost(poolSize).build();
+			// Connect to a single server directly, as the source client does.
+			// A list of one address would connect in replica set mode.
+			List<ServerAddress> addresses = source.getServerAddressList();
+			client = (addresses.size() == 1) ? new MongoClient(
+					addresses.get(0), source.getCredentialsList(), options)
+					: new MongoClient(addresses, source.getCredentialsList(),
+							options);
+			dedicatedClients.put(key, client);
+			LOG.info("+ MongoTC - Dedicated {} client: {}", use, key);
+		}
+		return client;
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		synchronized (this) {
+			for (ScheduledFuture<?> future : trackerServiceFutures.values())
+				future.cancel(false);
+			trackerServiceFutures.clear();
+			for (MongoTCTrackerService trackerService : trackerServices
+					.values())
+				trackerService.flush();
+			trackerServices.clear();
+		}
+		if (scheduledExecutor != null) {
+			getCamelContext().getExecutorServiceManager().shutdownNow(
+					scheduledExecutor);
+			scheduledExecutor = null;
+		}
+		if (tailingExecutor != null) {
+			getCamelContext().getExecutorServiceManager().shutdownNow(
+					tailingExecutor);
+			tailingExecutor = null;
+		}
+		if (deliveryExecutor != null) {
+			getCamelContext().getExecutorServiceManager().shutdownNow(
+					deliveryExecutor);
+			deliveryExecutor = null;
+		}
+		super.doStop();
+	}
+
+	/**
+	 * Dedicated clients outlive a stop, as the endpoints using them do.
+	 */
+	@Override
+	protected void doShutdown() throws Exception {
+		synchronized (this) {
+			for (MongoClient client : dedicatedClients.values())
+				client.close();
+			dedicatedClients.clear();
+		}
+		super.doShutdown();
+	}
+
+	/**
+	 * Subscribes to the tailing task shared by every endpoint bound to the
+	 * same connection bean, <code>tailingPoolSize</code>, database and
+	 * collection. The first subscription opens the cursor, from the
+	 * subscriber tracked position. A later one tracked behind the cursor
+	 * rewinds it, so the subscriber does not miss the events in between.
+	 */
+	public synchronized void subscribe(MongoTCEndpoint endpoint,
+			MongoTCSubscriber subscriber) {
+
+		// A stopped subscriber catching up must not come back
+		if (!subscriber.isRunning())
+			return;
+
+		String key = buildCursorKey(endpoint);
+		MongoTCTailingTask tailingTask = sharedTailingTasks.get(key);
+		if (tailingTask == null) {
+			MongoTCConfiguration config = endpoint.getConfiguration();
+			tailingTask = new MongoTCTailingTask(config.getTailedEventsCollection(),
+					config.getCursorRegenerationDelay());
+			tailingTask.setLastTrackedId(subscriber.getLastTrackedId());
+			tailingTask.addDocumentHandler(subscriber);
+			tailingTask.start();
+			getTailingExecutor().execute(tailingTask);
+
+			sharedTailingTasks.put(key, tailingTask);
+			LOG.info("+ MongoTC - Shared cursor opened: {}", key);
+		} else {
+			// Rewound first, so the subscriber gets no document past the gap
+			if (MongoTCTailingTask.isBefore(subscriber.getLastTrackedId(),
+					tailingTask.getLastTrackedId())) {
+				tailingTask.rewind(subscriber.getLastTrackedId());
+				LOG.info("+ MongoTC - Shared cursor {} rewound to: {}", key,
+						subscriber.getLastTrackedId());
+			}
+			tailingTask.addDocumentHandler(subscriber);
+		}
+	}
+
+	/**
+	 * The last subscription to be cancelled closes the shared cursor.
+	 */
+	public synchronized void unsubscribe(MongoTCEndpoint endpoint,
+			MongoTCSubscriber subscriber) {
+
+		String key = buildCursorKey(endpoint);
+		MongoTCTailingTask tailingTask = sharedTailingTasks.get(key);
+		if (tailingTask == null)
+			return;
+
+		tailingTask.removeDocumentHandler(subscriber);
+		if (!tailingTask.hasDocumentHandlers()) {
+			tailingTask.stop();
+			sharedTailingTasks.remove(key);
+			LOG.info("+ MongoTC - Shared cursor closed: {}", key);
+		}
+	}
+
+	/**
+	 * Removes a subscriber that cannot keep up from the shared cursor, unless
+	 * it is the only one.
+	 * 
+	 * @return false if the subscriber is the only one and must be waited for.
+	 */
+	public synchronized boolean detach(MongoTCEndpoint endpoint,
+			MongoTCSubscriber subscriber) {
+
+		MongoTCTailingTask tailingTask = sharedTailingTasks
+				.get(buildCursorKey(endpoint));
+		if (tailingTask == null || tailingTask.getDocumentHandlerCount() <= 1)
+			return false;
+		tailingTask.removeDocumentHandler(subscriber);
+		return true;
+	}
+
+	/**
+	 * @return true if a detached subscriber has reached the shared cursor, or
+	 *         the shared cursor is closed.
+	 */
+	public synchronized boolean isCaughtUp(MongoTCEndpoint endpoint,
+			MongoTCSubscriber subscriber) {
+
+		MongoTCTailingTask tailingTask = sharedTailingTasks
+				.get(buildCursorKey(endpoint));
+		return tailingTask == null
+				|| !MongoTCTailingTask.isBefore(subscriber.getLastTrackedId(),
+						tailingTask.getLastTrackedId());
+	}
+
+	/**
+	 * Registers a consumer whose lag is watched by the sizing advisor of its
+	 * collection. The first registration schedules the advisor.
+	 */
+	public synchronized MongoTCSizingAdvisor registerSizingConsumer(
+			MongoTCEndpoint endpoint, MongoTCConsumer consumer) {
+
+		String key = buildCollectionKey(endpoint);
+		MongoTCSizingAdvisor advisor = sizingAdvisors.get(key);
+		if (advisor == null) {
+			advisor = new MongoTCSizingAdvisor(endpoint.getConfiguration());
+			long interval = endpoint.getConfiguration().getSizingInterval();
+			sizingAdvisorFutures.put(key, getScheduledExecutor()
+					.scheduleWithFixedDelay(advisor, interval, interval,
+							TimeUnit.MILLISECONDS));
+			sizingAdvisors.put(key, advisor);
+		}
+		advisor.addConsumer(consumer);
+		return advisor;
+	}
+
+	public synchronized void unregisterSizingConsumer(MongoTCEndpoint endpoint,
+			MongoTCConsumer consumer) {
+
+		String key = buildCollectionKey(endpoint);
+		MongoTCSizingAdvisor advisor = sizingAdvisors.get(key);
+		if (advisor == null)
+			return;
+		advisor.removeConsumer(consumer);
+		if (!advisor.hasConsumers()) {
+			sizingAdvisorFutures.remove(key).cancel(false);
+			sizingAdvisors.remove(key);
+		}
+	}
+
+	private static String buildTrackingKey(MongoTCEndpoint endpoint) {
+		MongoTCConfiguration config = endpoint.getConfiguration();
+		String bean = (config.getTrackingConnectionBean() == null) ? endpoint
+				.getConnectionBean() : config.getTrackingConnectionBean();
+		if (config.getTrackingPoolSize() > 0)
+			bean += "/tracking/" + config.getTrackingPoolSize();
+		return bean + "/" + config.getDatabase();
+	}
+
+	/**
+	 * Endpoints share a cursor only if they tail on the same client
+	 */
+	private static String buildCursorKey(MongoTCEndpoint endpoint) {
+		MongoTCConfiguration config = endpoint.getConfiguration();
+		String bean = endpoint.getConnectionBean();
+		if (config.getTailingPoolSize() > 0)
+			bean += "/tailing/" + config.getTailingPoolSize();
+		return bean + "/" + config.getDatabase() + "/" + config.getCollection();
+	}
+
+	private static String buildCollectionKey(MongoTCEndpoint endpoint) {
+		MongoTCConfiguration config = endpoint.getConfiguration();
+		return endpoint.getConnectionBean() + "/" + config.getDatabase() + "/"
+				+ config.getCollection();
+	}
 }
@@ -1,12 +1,17 @@
 package org.apache.camel.component.mongotc;
 
+import java.util.zip.Deflater;
+
 import org.apache.camel.component.mongotc.exceptions.CamelMongoTCException;
 import org.apache.camel.spi.UriParam;
 import org.apache.camel.spi.UriParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.bson.Document;
+
 import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
 /**
@@ -31,6 +36,28 @@ public class MongoTCConfiguration {
 	 */
 	public static final String DEFAULT_EVENTS_COLLECTION_NAME = "events";
 
+	public static final int DEFAULT_SHARED_BUFFER_SIZE = 1000;
+
+	public static final int DEFAULT_PRIORITY_BUFFER_SIZE = 1000;
+
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT = 10000;
+
+	public static final int DEFAULT_CHECKPOINT_WINDOW = 1024;
+
+	public static final int DEFAULT_MAX_CURSOR_BATCH_SIZE = 1024;
+
+	public static final long DEFAULT_ADAPTIVE_INTERVAL = 1000;
+
+	public static final long DEFAULT_ADAPTIVE_LAG_THRESHOLD = 1000;
+
+	public static final double DEFAULT_ADAPTIVE_ERROR_RATE_THRESHOLD = 0.05;
+
+	public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	public static final long DEFAULT_WINDOW_GRACE = 1000;
+
+	public static final double DEFAULT_SIZING_ALARM_RATIO = 0.8;
+
 	/**
 	 * Holds the name provided for the database that this component is bound to.
 	 * This database stores the data needed to provided a working Mongo ESB.
@@ -51,6 +78,244 @@ public class MongoTCConfiguration {
 	@UriParam(defaultValue = DEFAULT_EVENTS_COLLECTION_NAME)
 	private String collection;
 
+	/**
+	 * If enabled, every endpoint with the same connection bean, database and
+	 * collection shares a single tailable cursor. Each one receives the
+	 * documents through its own buffer and keeps its own tracked position.
+	 * The shared cursor is opened from the position of its first subscriber.
+	 */
+	@UriParam(defaultValue = "false")
+	private boolean sharedCursor;
+
+	/**
+	 * Documents buffered for each subscriber of a shared cursor. A subscriber
+	 * whose buffer is full detaches from it and catches up on a cursor of its
+	 * own.
+	 */
+	@UriParam(defaultValue = "1000")
+	private int sharedBufferSize = DEFAULT_SHARED_BUFFER_SIZE;
+
+	/**
+	 * Maximum number of exchanges in flight. If greater than 0, documents are
+	 * routed asynchronously and the cursor only fetches more while there is
+	 * demand. Set to 0 to route every document synchronously from the tailing
+	 * thread.
+	 */
+	@UriParam(defaultValue = "0")
+	private int maxInflight;
+
+	/**
+	 * Milliseconds to wait, when the consumer stops, for the exchanges in
+	 * flight to complete before writing the final checkpoint.
+	 */
+	@UriParam(defaultValue = "10000")
+	private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+	/**
+	 * Maximum number of documents the cursor may run ahead of the oldest
+	 * incomplete exchange. Only the last contiguous completed id is
+	 * checkpointed, so a stuck exchange holds the checkpoint back at most this
+	 * many documents. Rounded up to a power of two, it must not be less than
+	 * <code>maxInflight</code>.
+	 */
+	@UriParam(defaultValue = "1024")
+	private int checkpointWindow = DEFAULT_CHECKPOINT_WINDOW;
+
+	/**
+	 * Comma separated list of document fields, dot paths for nested ones, to
+	 * be promoted to message headers named after them. Fields are extracted
+	 * once, when the exchange is created.
+	 */
+	@UriParam
+	private String headerFields;
+
+	/**
+	 * If enabled, exchanges and their in messages are recycled instead of
+	 * created for each document. Only for <code>InOnly</code> routes that do
+	 * not keep a reference to the exchange once it completes: no aggregation,
+	 * no hand-off to seda or other asynchronous endpoints.
+	 */
+	@UriParam(defaultValue = "false")
+	private boolean reuseExchanges;
+
+	/**
+	 * Number of documents the cursor fetches per batch. 0 for the driver
+	 * default.
+	 */
+	@UriParam(defaultValue = "0")
+	private int cursorBatchSize;
+
+	/**
+	 * If enabled, the consumer adjusts the exchanges in flight, between
+	 * <code>minInflight</code> and <code>maxInflight</code>, and the cursor
+	 * batch size, up to <code>maxCursorBatchSize</code>, from the observed tail
+	 * lag, processing latency and error rate. Requires asynchronous routing.
+	 */
+	@UriParam(defaultValue = "false")
+	private boolean adaptive;
+
+	@UriParam(defaultValue = "1")
+	private int minInflight = 1;
+
+	@UriParam(defaultValue = "1024")
+	private int maxCursorBatchSize = DEFAULT_MAX_CURSOR_BATCH_SIZE;
+
+	/**
+	 * Milliseconds between two adjustments of the adaptive controller
+	 */
+	@UriParam(defaultValue = "1000")
+	private long adaptiveInterval = DEFAULT_ADAPTIVE_INTERVAL;
+
+	/**
+	 * Tail lag, in milliseconds, above which the consumer is considered to
+	 * have a backlog and the adaptive controller scales up. Lag is measured
+	 * from <code>ObjectId</code> timestamps, in whole seconds: the default
+	 * scales up once the consumer is 2 seconds behind.
+	 */
+	@UriParam(defaultValue = "1000")
+	private long adaptiveLagThreshold = DEFAULT_ADAPTIVE_LAG_THRESHOLD;
+
+	/**
+	 * Ratio of failed exchanges above which the adaptive controller scales
+	 * down.
+	 */
+	@UriParam(defaultValue = "0.05")
+	private double adaptiveErrorRateThreshold = DEFAULT_ADAPTIVE_ERROR_RATE_THRESHOLD;
+
+	/**
+	 * Codec the producer stores events with: <code>none</code> or
+	 * <code>deflate</code>. Consumers decode compressed events whatever their
+	 * own codec is.
+	 */
+	@UriParam(defaultValue = MongoTCPayloadCodec.NONE)
+	private String payloadCodec = MongoTCPayloadCodec.NONE;
+
+	/**
+	 * Deflate level, from 1 (fastest) to 9 (smallest). -1 for the default.
+	 */
+	@UriParam(defaultValue = "-1")
+	private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+
+	/**
+	 * Preset dictionary, usually a registry reference to a byte array built
+	 * from representative events. Producers and consumers of a collection must
+	 * share it.
+	 */
+	@UriParam
+	private byte[] compressionDictionary;
+
+	/**
+	 * Window length in milliseconds. If greater than 0, events are folded
+	 * into windows and one exchange is emitted per window instead of one per
+	 * event.
+	 */
+	@UriParam(defaultValue = "0")
+	private long windowSize;
+
+	/**
+	 * Milliseconds between the start of two consecutive windows. 0, or equal
+	 * to <code>windowSize</code>, for tumbling windows. Otherwise windows
+	 * slide and <code>windowSize</code> must be a multiple of it.
+	 */
+	@UriParam(defaultValue = "0")
+	private long windowSlide;
+
+	/**
+	 * Milliseconds to wait after the end of a window for late events, when no
+	 * later event has closed it.
+	 */
+	@UriParam(defaultValue = "1000")
+	private long windowGrace = DEFAULT_WINDOW_GRACE;
+
+	/**
+	 * Field, a dot path for nested ones, events are grouped by in each window
+	 */
+	@UriParam
+	private String windowKeyField;
+
+	/**
+	 * Numeric field, a dot path for nested ones, whose sum, min and max are
+	 * computed for each group
+	 */
+	@UriParam
+	private String windowValueField;
+
+	/**
+	 * If enabled, the events collection is created, capped to
+	 * <code>collectionSizeInBytes</code>, when the endpoint starts and it does
+	 * not exist.
+	 */
+	@UriParam(defaultValue = "false")
+	private boolean createCollection;
+
+	@UriParam
+	private long collectionSizeInBytes;
+
+	/**
+	 * Optional limit on the number of events kept by a created collection
+	 */
+	@UriParam(defaultValue = "0")
+	private long collectionMaxDocuments;
+
+	/**
+	 * Milliseconds between two samples of the sizing advisor. 0 to disable it.
+	 */
+	@UriParam(defaultValue = "0")
+	private long sizingInterval;
+
+	/**
+	 * Ratio of the retention window the slowest consumer lag may reach before
+	 * the sizing advisor warns.
+	 */
+	@UriParam(defaultValue = "0.8")
+	private double sizingAlarmRatio = DEFAULT_SIZING_ALARM_RATIO;
+
+	/**
+	 * Collections to be tailed at once, each with a priority:
+	 * <code>control:10,telemetry:1</code>. Events of higher priority
+	 * collections are dispatched first. Replaces <code>collection</code>.
+	 */
+	@UriParam
+	private String priorityCollections;
+
+	/**
+	 * <code>strict</code>: always dispatch from the highest priority
+	 * collection with events. <code>weighted</code>: dispatch in proportion to
+	 * the priorities.
+	 */
+	@UriParam(defaultValue = MongoTCPriorityDispatcher.STRICT)
+	private String priorityScheduling = MongoTCPriorityDispatcher.STRICT;
+
+	/**
+	 * Events buffered for each collection in priority mode. The cursor of a
+	 * collection waits while its buffer is full.
+	 */
+	@UriParam(defaultValue = "1000")
+	private int priorityBufferSize = DEFAULT_PRIORITY_BUFFER_SIZE;
+
+	/**
+	 * Registry bean of the MongoClient used for the <code>tracker</code>
+	 * collection. Defaults to the endpoint connection bean.
+	 */
+	@UriParam
+	private String trackingConnectionBean;
+
+	/**
+	 * Connections per host of a client dedicated to tailable cursors, built
+	 * from the settings of the connection bean. 0 tails with the connection
+	 * bean itself.
+	 */
+	@UriParam
+	private int tailingPoolSize;
+
+	/**
+	 * Connections per host of a client dedicated to the <code>tracker</code>
+	 * collection, built from the settings of the tracking connection bean. 0
+	 * tracks with the tracking connection bean itself.
+	 */
+	@UriParam
+	private int trackingPoolSize;
+
 	/**
 	 * Eventually, contains the data needed in order to implement a persistent
 	 * tracking system. If this value is null, there is no tracking information
@@ -61,6 +326,13 @@ public class MongoTCConfiguration {
 	private MongoClient mongoClient;
 	private MongoDatabase mongoDatabase;
 
+	/**
+	 * Clients for tailable cursors and for the <code>tracker</code>
+	 * collection. When null, the connection bean client is used.
+	 */
+	private MongoClient tailingMongoClient;
+	private MongoClient trackingMongoClient;
+
 	public MongoClient getMongoClient() {
 		return mongoClient;
 	}
@@ -91,11 +363,80 @@ public class MongoTCConfiguration {
 
 	public MongoDatabase getMongoDatabase() {  
 		if (mongoDatabase == null) {
-			mongoDatabase = mongoClient.getDatabase(database);
+			mongoDatabase = mongoClient.getDatabase(getDatabase());
 		}
 		return mongoDatabase;
 	}
 
+	public MongoCollection<Document> getEventsCollection() {
+		return getMongoDatabase().getCollection(getCollection());
+	}
+
+	public MongoClient getTailingMongoClient() {
+		return tailingMongoClient;
+	}
+
+	public void setTailingMongoClient(MongoClient tailingMongoClient) {
+		this.tailingMongoClient = tailingMongoClient;
+	}
+
+	public MongoClient getTrackingMongoClient() {
+		return trackingMongoClient;
+	}
+
+	public void setTrackingMongoClient(MongoClient trackingMongoClient) {
+		this.trackingMongoClient = trackingMongoClient;
+	}
+
+	/**
+	 * @return the database tailable cursors are opened on
+	 */
+	public MongoDatabase getTailingMongoDatabase() {
+		if (tailingMongoClient == null)
+			return getMongoDatabase();
+		return tailingMongoClient.getDatabase(getDatabase());
+	}
+
+	/**
+	 * @return the events collection, on the tailing client
+	 */
+	public MongoCollection<Document> getTailedEventsCollection() {
+		return getTailingMongoDatabase().getCollection(getCollection());
+	}
+
+	/**
+	 * @return the database holding the <code>tracker</code> collection
+	 */
+	public MongoDatabase getTrackingMongoDatabase() {
+		if (trackingMongoClient == null)
+			return getMongoDatabase();
+		return trackingMongoClient.getDatabase(getDatabase());
+	}
+
+	public String getTrackingConnectionBean() {
+		return trackingConnectionBean;
+	}
+
+	public void setTrackingConnectionBean(String trackingConnectionBean) {
+		this.trackingConnectionBean = trackingConnectionBean;
+	}
+
+	public int getTailingPoolSize() {
+		return tailingPoolSize;
+	}
+
+	public void setTailingPoolSize(int tailingPoolSize) {
+		this.tailingPoolSize = tailingPoolSize;
+	}
+
+	public int getTrackingPoolSize() {
+		return trackingPoolSize;
+	}
+
+	public void setTrackingPoolSize(int trackingPoolSize) {
+		this.trackingPoolSize = trackingPoolSize;
+	}
+
 	public void setMongoDatabase(MongoDatabase mongoDatabase) {
 		this.mongoDatabase = mongoDatabase;
 	}
@@ -109,6 +450,252 @@ public class MongoTCConfiguration {
 		this.persistentTrackingConfiguration = persistentTrackingConfiguration;
 	}
 
+	public boolean isSharedCursor() {
+		return sharedCursor;
+	}
+
+	public void setSharedCursor(boolean sharedCursor) {
+		this.sharedCursor = sharedCursor;
+	}
+
+	public int getSharedBufferSize() {
+		return sharedBufferSize;
+	}
+
+	public void setSharedBufferSize(int sharedBufferSize) {
+		this.sharedBufferSize = sharedBufferSize;
+	}
+
+	public int getMaxInflight() {
+		return maxInflight;
+	}
+
+	public void setMaxInflight(int maxInflight) {
+		this.maxInflight = maxInflight;
+	}
+
+	public long getShutdownTimeout() {
+		return shutdownTimeout;
+	}
+
+	public void setShutdownTimeout(long shutdownTimeout) {
+		this.shutdownTimeout = shutdownTimeout;
+	}
+
+	public int getCheckpointWindow() {
+		return checkpointWindow;
+	}
+
+	public void setCheckpointWindow(int checkpointWindow) {
+		this.checkpointWindow = checkpointWindow;
+	}
+
+	public String getHeaderFields() {
+		return headerFields;
+	}
+
+	public void setHeaderFields(String headerFields) {
+		this.headerFields = headerFields;
+	}
+
+	public boolean isReuseExchanges() {
+		return reuseExchanges;
+	}
+
+	public void setReuseExchanges(boolean reuseExchanges) {
+		this.reuseExchanges = reuseExchanges;
+	}
+
+	public int getCursorBatchSize() {
+		return cursorBatchSize;
+	}
+
+	public void setCursorBatchSize(int cursorBatchSize) {
+		this.cursorBatchSize = cursorBatchSize;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	public int getMinInflight() {
+		return minInflight;
+	}
+
+	public void setMinInflight(int minInflight) {
+		this.minInflight = minInflight;
+	}
+
+	public int getMaxCursorBatchSize() {
+		return maxCursorBatchSize;
+	}
+
+	public void setMaxCursorBatchSize(int maxCursorBatchSize) {
+		this.maxCursorBatchSize = maxCursorBatchSize;
+	}
+
+	public long getAdaptiveInterval() {
+		return adaptiveInterval;
+	}
+
+	public void setAdaptiveInterval(long adaptiveInterval) {
+		this.adaptiveInterval = adaptiveInterval;
+	}
+
+	public long getAdaptiveLagThreshold() {
+		return adaptiveLagThreshold;
+	}
+
+	public void setAdaptiveLagThreshold(long adaptiveLagThreshold) {
+		this.adaptiveLagThreshold = adaptiveLagThreshold;
+	}
+
+	public double getAdaptiveErrorRateThreshold() {
+		return adaptiveErrorRateThreshold;
+	}
+
+	public void setAdaptiveErrorRateThreshold(double adaptiveErrorRateThreshold) {
+		this.adaptiveErrorRateThreshold = adaptiveErrorRateThreshold;
+	}
+
+	public String getPayloadCodec() {
+		return payloadCodec;
+	}
+
+	public void setPayloadCodec(String payloadCodec) {
+		this.payloadCodec = payloadCodec;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public byte[] getCompressionDictionary() {
+		return compressionDictionary;
+	}
+
+	public void setCompressionDictionary(byte[] compressionDictionary) {
+		this.compressionDictionary = compressionDictionary;
+	}
+
+	public long getWindowSize() {
+		return windowSize;
+	}
+
+	public void setWindowSize(long windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public long getWindowSlide() {
+		return windowSlide;
+	}
+
+	public void setWindowSlide(long windowSlide) {
+		this.windowSlide = windowSlide;
+	}
+
+	public long getWindowGrace() {
+		return windowGrace;
+	}
+
+	public void setWindowGrace(long windowGrace) {
+		this.windowGrace = windowGrace;
+	}
+
+	public String getWindowKeyField() {
+		return windowKeyField;
+	}
+
+	public void setWindowKeyField(String windowKeyField) {
+		this.windowKeyField = windowKeyField;
+	}
+
+	public String getWindowValueField() {
+		return windowValueField;
+	}
+
+	public void setWindowValueField(String windowValueField) {
+		this.windowValueField = windowValueField;
+	}
+
+	public boolean isCreateCollection() {
+		return createCollection;
+	}
+
+	public void setCreateCollection(boolean createCollection) {
+		this.createCollection = createCollection;
+	}
+
+	public long getCollectionSizeInBytes() {
+		return collectionSizeInBytes;
+	}
+
+	public void setCollectionSizeInBytes(long collectionSizeInBytes) {
+		this.collectionSizeInBytes = collectionSizeInBytes;
+	}
+
+	public long getCollectionMaxDocuments() {
+		return collectionMaxDocuments;
+	}
+
+	public void setCollectionMaxDocuments(long collectionMaxDocuments) {
+		this.collectionMaxDocuments = collectionMaxDocuments;
+	}
+
+	public long getSizingInterval() {
+		return sizingInterval;
+	}
+
+	public void setSizingInterval(long sizingInterval) {
+		this.sizingInterval = sizingInterval;
+	}
+
+	public double getSizingAlarmRatio() {
+		return sizingAlarmRatio;
+	}
+
+	public void setSizingAlarmRatio(double sizingAlarmRatio) {
+		this.sizingAlarmRatio = sizingAlarmRatio;
+	}
+
+	public String getPriorityCollections() {
+		return priorityCollections;
+	}
+
+	public void setPriorityCollections(String priorityCollections) {
+		this.priorityCollections = priorityCollections;
+	}
+
+	public String getPriorityScheduling() {
+		return priorityScheduling;
+	}
+
+	public void setPriorityScheduling(String priorityScheduling) {
+		this.priorityScheduling = priorityScheduling;
+	}
+
+	public int getPriorityBufferSize() {
+		return priorityBufferSize;
+	}
+
+	public void setPriorityBufferSize(int priorityBufferSize) {
+		this.priorityBufferSize = priorityBufferSize;
+	}
+
+	public long getCursorRegenerationDelay() {
+		if (persistentTrackingConfiguration == null)
+			return MongoTCPersistentTrackingConfiguration.DEFAULT_CURSOR_REGENERATION_DELAY;
+		return persistentTrackingConfiguration.getCursorRegenerationDelay();
+	}
+
 	public static String getDefaultEventSystemDbName() {
 		return DEFAULT_EVENT_SYSTEM_DB_NAME;
 	}
@@ -130,5 +717,75 @@ public class MongoTCConfiguration {
 			LOG.error(m);
 			throw new CamelMongoTCException(m);
 		}
+		if (tailingPoolSize < 0 || trackingPoolSize < 0) {
+			String m = "Invalid MongoTCConfiguration. tailingPoolSize and trackingPoolSize must be 0 or greater";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (maxInflight < 0) {
+			String m = "Invalid MongoTCConfiguration. maxInflight must not be negative";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (checkpointWindow <= 0 || checkpointWindow < maxInflight) {
+			String m = "Invalid MongoTCConfiguration. checkpointWindow must be greater than 0 and not less than maxInflight";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (adaptive
+				&& (maxInflight <= 0 || minInflight <= 0
+						|| minInflight > maxInflight
+						|| maxCursorBatchSize < MongoTCAdaptiveController.MIN_CURSOR_BATCH_SIZE || adaptiveInterval <= 0)) {
+			String m = "Invalid MongoTCConfiguration. adaptive requires 0 < minInflight <= maxInflight, a positive adaptiveInterval and maxCursorBatchSize not less than "
+					+ MongoTCAdaptiveController.MIN_CURSOR_BATCH_SIZE;
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (!MongoTCPayloadCodec.NONE.equals(payloadCodec)
+				&& !MongoTCPayloadCodec.DEFLATE.equals(payloadCodec)) {
+			String m = "Invalid MongoTCConfiguration. Unknown payloadCodec: "
+					+ payloadCodec;
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (compressionLevel < -1 || compressionLevel > 9) {
+			String m = "Invalid MongoTCConfiguration. compressionLevel must be between -1 and 9";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (windowSize < 0
+				|| windowSlide < 0
+				|| windowGrace < 0
+				|| (windowSize > 0 && windowSlide > 0 && (windowSlide > windowSize || windowSize
+						% windowSlide != 0))) {
+			String m = "Invalid MongoTCConfiguration. windowSize must be a multiple of windowSlide and window values must not be negative";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if ((createCollection && collectionSizeInBytes <= 0)
+				|| collectionMaxDocuments < 0 || sizingInterval < 0
+				|| sizingAlarmRatio <= 0) {
+			String m = "Invalid MongoTCConfiguration. createCollection requires a positive collectionSizeInBytes and sizing values must be positive";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (priorityCollections != null
+				&& (sharedCursor || windowSize > 0 || adaptive || (!MongoTCPriorityDispatcher.STRICT
+						.equals(priorityScheduling) && !MongoTCPriorityDispatcher.WEIGHTED
+						.equals(priorityScheduling)))) {
+			String m = "Invalid MongoTCConfiguration. priorityCollections requires strict or weighted priorityScheduling and cannot be combined with sharedCursor, windowSize or adaptive";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (sharedBufferSize <= 0) {
+			String m = "Invalid MongoTCConfiguration. sharedBufferSize must be greater than 0";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
+		if (priorityBufferSize <= 0) {
+			String m = "Invalid MongoTCConfiguration. priorityBufferSize must be greater than 0";
+			LOG.error(m);
+			throw new CamelMongoTCException(m);
+		}
 	}
 }
@@ -16,41 +16,103 @@
  */
 package org.apache.camel.component.mongotc;
 
-import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
+import org.apache.camel.ShutdownRunningTask;
+import org.apache.camel.Suspendable;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.camel.component.mongotc.MongoTCAdaptiveController.AdjustableSemaphore;
 import org.apache.camel.impl.DefaultConsumer;
+import org.apache.camel.spi.ShutdownAware;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import es.omarall.configuration.MTCConfiguration;
-import es.omarall.configuration.MTCPersistentTrackingConfiguration;
-import es.omarall.mtc.DocumentHandler;
-import es.omarall.mtc.TailingTask;
-
 /**
  * The MongoESB consumer consumes messages from a capped collection with a
  * tailabable consumer.
+ * 
+ * Suspending the consumer pauses the hand-off of documents to the route but
+ * keeps the cursor open. Stopping it drains the exchanges in flight, up to
+ * <code>shutdownTimeout</code>, and writes a final checkpoint.
  */
 // It is an STATEFUL Service
-public class MongoTCConsumer extends DefaultConsumer implements DocumentHandler {
+@ManagedResource(description = "Managed MongoTC Consumer")
+public class MongoTCConsumer extends DefaultConsumer implements
+		MongoTCDocumentHandler, ShutdownAware, Suspendable {
 
 	private static final Logger LOG = LoggerFactory
 			.getLogger(MongoTCConsumer.class);
 
-	private TailingTask tailingTask;
-	private Executor executor;
+	private static final long DRAIN_POLL_INTERVAL = 100;
+	private static final int MIN_HEADERS_CAPACITY = 4;
+	private static final long WINDOW_PARK_NANOS = TimeUnit.MICROSECONDS
+			.toNanos(100);
+
+	private MongoTCTailingTask tailingTask;
+	private volatile MongoTCSubscriber subscriber;
+	private MongoTCTrackerService trackerService;
+
+	/**
+	 * Tracking document of the consumer. Null in priority mode, where every
+	 * collection has its own.
+	 */
+	private MongoTCTracker tracker;
+	private MongoTCCheckpointTracker checkpointTracker;
+	private MongoTCHeaderFields headerFields;
+	private MongoTCExchangePool exchangePool;
+	private MongoTCPayloadCodec payloadCodec;
+	private MongoTCWindowAggregator windowAggregator;
+
+	/**
+	 * Emits the windows no event closed. Routing a window may block, so it
+	 * runs on a thread of its own rather than on the component scheduler.
+	 */
+	private ScheduledExecutorService windowExecutor;
+	private volatile MongoTCSizingAdvisor sizingAdvisor;
+	private MongoTCPriorityDispatcher priorityDispatcher;
+
+	/**
+	 * Permits for exchanges in flight when routing asynchronously. The
+	 * tailing thread waits for one before handing off each document. Created
+	 * on every start, so lanes taken by a previous run are not carried over.
+	 */
+	private volatile AdjustableSemaphore demand;
+
+	private MongoTCAdaptiveController adaptiveController;
+	private ScheduledFuture<?> adaptiveControllerFuture;
+
+	/**
+	 * Documents are handed off to the route only while fetching. The tailing
+	 * thread waits on <code>fetchingLock</code> otherwise.
+	 */
+	private final Object fetchingLock = new Object();
+	private volatile boolean fetching;
+	private volatile boolean stopping;
 
 	public MongoTCConsumer(MongoTCEndpoint endpoint, Processor processor) {
 
 		super(endpoint, processor);
 
-		MTCConfiguration mtcContiguration = buildMTCConfigurationFromMongoTCConfiguration(getConfiguration());
-		tailingTask = new TailingTask(mtcContiguration);
-		tailingTask.setDocumentHandler(this);
-
+		payloadCodec = new MongoTCPayloadCodec(getConfiguration());
+		if (getConfiguration().getHeaderFields() != null)
+			headerFields = new MongoTCHeaderFields(getConfiguration()
+					.getHeaderFields());
+		if (getConfiguration().isReuseExchanges()) {
+			int promoted = (headerFields == null) ? 0 : headerFields
+					.getNames().length;
+			exchangePool = new MongoTCExchangePool(endpoint, Math.max(1,
+					getConfiguration().getMaxInflight()), Math.max(
+					MIN_HEADERS_CAPACITY, 2 * promoted));
+		}
 	}
 
 	@Override
@@ -64,22 +126,185 @@ public class MongoTCConsumer extends DefaultConsumer implements DocumentHandler
 		// here this.isStarted()==false
 
 		// fetch lastTrackedId if needed
-		tailingTask.start();
+		if (getConfiguration().isPersistentTrackingEnable()) {
+			trackerService = getEndpoint().getComponent().getTrackerService(
+					getEndpoint());
+			if (getConfiguration().getPriorityCollections() == null)
+				tracker = new MongoTCTracker(trackerService, getConfiguration()
+						.getPersistentTrackingConfiguration().getConsumerId());
+		}
+		Document trackingDoc = (tracker == null) ? null : tracker
+				.fetchTrackingDocument();
+		Object lastTrackedId = (trackingDoc == null) ? null : trackingDoc
+				.get(MongoTCPersistentTrackingConfiguration.LAST_TRACK_ID_FIELD);
+		checkpointTracker = new MongoTCCheckpointTracker(getConfiguration()
+				.getCheckpointWindow(), lastTrackedId);
+		if (getConfiguration().getMaxInflight() > 0)
+			demand = new AdjustableSemaphore(getConfiguration()
+					.getMaxInflight());
+		stopping = false;
+		setFetching(true);
+
+		if (getConfiguration().getWindowSize() > 0) {
+			windowAggregator = new MongoTCWindowAggregator(
+					new MongoTCWindowAggregator.Emitter() {
+
+						@Override
+						public void emit(Document window,
+								MongoTCWindowAggregator.WindowCheckpoint checkpoint) {
+							dispatch(window, checkpoint);
+						}
+					},
+					getConfiguration(),
+					lastTrackedId,
+					(trackingDoc == null) ? null
+							: trackingDoc
+									.getDate(MongoTCPersistentTrackingConfiguration.LAST_WINDOW_END_FIELD));
+			long slide = getConfiguration().getWindowSlide() > 0 ? getConfiguration()
+					.getWindowSlide() : getConfiguration().getWindowSize();
+			final MongoTCWindowAggregator aggregator = windowAggregator;
+			windowExecutor = getEndpoint().getCamelContext()
+					.getExecutorServiceManager()
+					.newSingleThreadScheduledExecutor(this, "MongoTC Window");
+			windowExecutor.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					// Windows are not emitted while suspended
+					if (fetching)
+						aggregator.flush(System.currentTimeMillis());
+				}
+			}, slide, slide, TimeUnit.MILLISECONDS);
+		}
+
+		if (getConfiguration().getPriorityCollections() != null) {
 
-		// Start consuming from the cursor.
-		getExecutor().execute(tailingTask);
+			// One tailing task per collection, one dispatcher thread
+			priorityDispatcher = new MongoTCPriorityDispatcher(this,
+					getConfiguration());
+			priorityDispatcher.start();
+		} else if (getConfiguration().isSharedCursor()) {
 
+			// Consume from the component shared cursor through our own buffer.
+			subscriber = new MongoTCSubscriber(getEndpoint(), this,
+					getConfiguration().getSharedBufferSize(), lastTrackedId);
+			subscriber.start();
+			getEndpoint().getComponent().subscribe(getEndpoint(), subscriber);
+		} else {
+
+			tailingTask = new MongoTCTailingTask(getConfiguration()
+					.getTailedEventsCollection(), getConfiguration()
+					.getCursorRegenerationDelay());
+			tailingTask.setLastTrackedId(lastTrackedId);
+			tailingTask.setBatchSize(getConfiguration().getCursorBatchSize());
+			tailingTask.addDocumentHandler(this);
+			tailingTask.start();
+
+			// Start consuming from the cursor.
+			getEndpoint().getComponent().executeTailing(tailingTask);
+		}
+
+		if (getConfiguration().getSizingInterval() > 0)
+			sizingAdvisor = getEndpoint().getComponent().registerSizingConsumer(
+					getEndpoint(), this);
+
+		if (getConfiguration().isAdaptive()) {
+			// Only our own cursor batch size may be adjusted
+			adaptiveController = new MongoTCAdaptiveController(demand,
+					tailingTask, getConfiguration());
+			long interval = getConfiguration().getAdaptiveInterval();
+			adaptiveControllerFuture = getEndpoint().getComponent()
+					.getScheduledExecutor()
+					.scheduleWithFixedDelay(adaptiveController, interval,
+							interval, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	@Override
 	protected void doStop() throws Exception {
 
+		if (adaptiveControllerFuture != null) {
+			// A run in progress may still adjust the lanes of this start only
+			adaptiveControllerFuture.cancel(false);
+			adaptiveControllerFuture = null;
+			adaptiveController = null;
+		}
+
+		if (sizingAdvisor != null) {
+			getEndpoint().getComponent().unregisterSizingConsumer(
+					getEndpoint(), this);
+			sizingAdvisor = null;
+		}
+		if (windowExecutor != null) {
+			// A window being routed completes or is released by stopping
+			getEndpoint().getCamelContext().getExecutorServiceManager()
+					.shutdown(windowExecutor);
+			windowExecutor = null;
+		}
+
+		// Stop fetching
+		synchronized (fetchingLock) {
+			stopping = true;
+			fetching = false;
+			fetchingLock.notifyAll();
+		}
+		if (subscriber != null) {
+			subscriber.stop();
+			getEndpoint().getComponent().unsubscribe(getEndpoint(), subscriber);
+			subscriber = null;
+		}
+		if (tailingTask != null) {
+			tailingTask.stop();
+			tailingTask = null;
+		}
+		if (priorityDispatcher != null)
+			priorityDispatcher.stop();
+
+		// Drain in flight exchanges and write the final checkpoint
+		if (checkpointTracker != null) {
+			awaitInflightExchanges(getConfiguration().getShutdownTimeout());
+			Object checkpoint = checkpointTracker.getCheckpoint();
+			if (trackerService != null && checkpoint != null) {
+				persistCheckpoint(checkpoint);
+				LOG.info("+ MongoTC - Final checkpoint for {}: {}",
+						getConfiguration().getPersistentTrackingConfiguration()
+								.getConsumerId(), checkpoint);
+			}
+			if (trackerService != null)
+				trackerService.flush();
+			// Open windows are replayed on restart
+			windowAggregator = null;
+			priorityDispatcher = null;
+		}
+
 		super.doStop();
+	}
+
+	@Override
+	protected void doSuspend() throws Exception {
+		setFetching(false);
+	}
 
-		tailingTask.stop();
+	@Override
+	protected void doResume() throws Exception {
+		setFetching(true);
+	}
 
-		// if (executor != null)
-		// executor.shutdown();
+	@Override
+	public boolean deferShutdown(ShutdownRunningTask shutdownRunningTask) {
+		return false;
+	}
+
+	@Override
+	public int getPendingExchangesSize() {
+		return (checkpointTracker == null) ? 0 : checkpointTracker
+				.getPending();
+	}
+
+	@Override
+	public void prepareShutdown(boolean suspendOnly, boolean forced) {
+		// Let the exchanges in flight complete while no new ones are created
+		setFetching(false);
 	}
 
 	@Override
@@ -94,50 +319,355 @@ public class MongoTCConsumer extends DefaultConsumer implements DocumentHandler
 	@Override
 	public void handleDocument(Document doc) {
 
-		Exchange exchange = getEndpoint().createExchange();
-		exchange.getIn().setBody(doc);
+		if (!awaitFetching())
+			return;
+
+		if (windowAggregator != null) {
+			Document event;
+			try {
+				event = payloadCodec.decode(doc);
+			} catch (RuntimeException e) {
+				getExceptionHandler().handleException(
+						"Error decoding event to be aggregated", e);
+				return;
+			}
+			windowAggregator.fold(event);
+			return;
+		}
+
+		dispatch(doc, doc.get(MongoTCTailingTask.ID_FIELD));
+	}
+
+	/**
+	 * Routes a document, an event or an aggregated window. Must not be called
+	 * concurrently.
+	 * 
+	 * @param checkpoint
+	 *            recorded once the exchange, and every one dispatched before
+	 *            it, completes.
+	 */
+	void dispatch(Document doc, final Object checkpoint) {
+
+		// Released to the permits it was acquired from, even after a restart
+		final AdjustableSemaphore permits = demand;
+		if (permits == null) {
+			if (!awaitCheckpointWindow())
+				return;
+			Exchange exchange = createExchange(doc);
+			long sequence = checkpointTracker.dispatched(checkpoint);
+			if (exchange.getException() == null) {
+				try {
+					this.getProcessor().process(exchange);
+				} catch (Exception e) {
+					// exceptions in processor chain
+					exchange.setException(e);
+				}
+			}
+			onExchangeCompleted(exchange, sequence);
+			return;
+		}
+
+		// Asynchronous routing: wait for demand, then hand off and go back to
+		// the cursor.
 		try {
-			this.getProcessor().process(exchange);
-		} catch (Exception e) {
-			// exceptions in processor chain
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (stopping || !awaitCheckpointWindow()) {
+			permits.release();
+			return;
+		}
+		final Exchange exchange = createExchange(doc);
+		final long sequence = checkpointTracker.dispatched(checkpoint);
+		if (exchange.getException() != null) {
+			onExchangeCompleted(exchange, sequence);
+			permits.release();
+			return;
+		}
+		final MongoTCAdaptiveController controller = adaptiveController;
+		final long dispatchTime = (controller == null) ? 0 : System
+				.nanoTime();
+		if (controller != null)
+			controller.recordDispatched(checkpoint);
+		getAsyncProcessor().process(exchange, new AsyncCallback() {
+
+			@Override
+			public void done(boolean doneSync) {
+				try {
+					if (controller != null)
+						controller.recordCompleted(System.nanoTime()
+								- dispatchTime, exchange.getException() != null);
+					onExchangeCompleted(exchange, sequence);
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	private Exchange createExchange(Document doc) {
+		Exchange exchange = (exchangePool == null) ? getEndpoint()
+				.createExchange() : exchangePool.acquire();
+		Document event;
+		try {
+			event = payloadCodec.decode(doc);
+		} catch (RuntimeException e) {
+			// Not routed: the exception handler gets the envelope
+			exchange.getIn().setBody(doc);
 			exchange.setException(e);
+			return exchange;
+		}
+		exchange.getIn().setBody(event);
+		if (headerFields != null)
+			headerFields.promote(event, exchange.getIn());
+		return exchange;
+	}
+
+	private void onExchangeCompleted(Exchange exchange, long sequence) {
+		if (exchange.getException() != null)
+			getExceptionHandler().handleException(
+					"Error processing exchange", exchange,
+					exchange.getException());
+
+		releaseExchange(exchange);
+		checkpointTracker.completed(sequence);
+		if (trackerService != null) {
+			// Only the low-water mark is persisted, and only if it advanced
+			Object checkpoint = checkpointTracker.takeCheckpointToPersist();
+			if (checkpoint != null)
+				persistCheckpoint(checkpoint);
+		}
+	}
+
+	private void persistCheckpoint(Object checkpoint) {
+		if (checkpoint instanceof MongoTCPriorityDispatcher.PriorityCheckpoint) {
+			priorityDispatcher
+					.persist((MongoTCPriorityDispatcher.PriorityCheckpoint) checkpoint);
+		} else if (checkpoint instanceof MongoTCWindowAggregator.WindowCheckpoint) {
+			MongoTCWindowAggregator.WindowCheckpoint windowCheckpoint = (MongoTCWindowAggregator.WindowCheckpoint) checkpoint;
+			tracker.persistWindowCheckpoint(
+					windowCheckpoint.getLastTrackedId(),
+					windowCheckpoint.getWindowEnd());
+		} else {
+			tracker.persistLastTrackedId(checkpoint);
 		}
 	}
 
-	public static MTCConfiguration buildMTCConfigurationFromMongoTCConfiguration(
-			MongoTCConfiguration mbConfiguration) {
+	private void releaseExchange(Exchange exchange) {
+		if (exchangePool != null)
+			exchangePool.release(exchange);
+	}
 
-		if (mbConfiguration == null)
-			throw new IllegalArgumentException(
-					"Not null MongoTCConfiguration expected");
+	/**
+	 * Waits while the oldest incomplete exchange is a full checkpoint window
+	 * behind the cursor.
+	 * 
+	 * @return false if the consumer is stopping.
+	 */
+	private boolean awaitCheckpointWindow() {
+		while (!checkpointTracker.hasCapacity()) {
+			if (stopping)
+				return false;
+			LockSupport.parkNanos(WINDOW_PARK_NANOS);
+		}
+		return true;
+	}
 
-		MTCConfiguration mtcContiguration = new MTCConfiguration();
-		mtcContiguration.setCollection(mbConfiguration.getCollection());
-		mtcContiguration.setDatabase(mbConfiguration.getDatabase());
-		mtcContiguration.setMongoClient(mbConfiguration.getMongoClient());
+	private void setFetching(boolean fetching) {
+		synchronized (fetchingLock) {
+			this.fetching = fetching;
+			fetchingLock.notifyAll();
+		}
+		// Subscribers do not hold a delivery thread while suspended
+		MongoTCSubscriber s = subscriber;
+		if (s != null)
+			s.setPaused(!fetching);
+	}
 
-		MongoTCPersistentTrackingConfiguration pConf = mbConfiguration
-				.getPersistentTrackingConfiguration();
-		if (pConf != null) {
-			MTCPersistentTrackingConfiguration pMtcConfiguration = new MTCPersistentTrackingConfiguration();
-			pMtcConfiguration.setConsumerId(pConf.getConsumerId());
-			pMtcConfiguration.setCursorRegenerationDelay(pConf
-					.getCursorRegenerationDelay());
-			mtcContiguration
-					.setPersistentTrackingConfiguration(pMtcConfiguration);
+	/**
+	 * Blocks the tailing thread while the consumer is suspended.
+	 * 
+	 * @return false if the consumer is stopping and the document must not be
+	 *         handed off.
+	 */
+	boolean awaitFetching() {
+		if (fetching)
+			return true;
+		synchronized (fetchingLock) {
+			while (!fetching && !stopping) {
+				try {
+					fetchingLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return fetching;
 		}
+	}
 
-		return mtcContiguration;
+	private void awaitInflightExchanges(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (checkpointTracker.getPending() > 0
+				&& System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(DRAIN_POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		int pending = checkpointTracker.getPending();
+		if (pending > 0)
+			LOG.warn(
+					"+ MongoTC - {} exchanges still in flight after {} ms. They will be replayed on restart.",
+					pending, timeout);
+	}
 
+	@ManagedAttribute(description = "Exchanges dispatched but not yet checkpointed")
+	public int getPendingExchanges() {
+		return getPendingExchangesSize();
 	}
 
-	public Executor getExecutor() {
-		// Obtain a reference to a task executor to run the tailing task
-		if (executor == null)
-			executor = getEndpoint()
-					.getCamelContext()
-					.getExecutorServiceManager()
-					.newFixedThreadPool(this, getEndpoint().getEndpointUri(), 1);
-		return executor;
+	@ManagedAttribute(description = "Adaptive controller enabled")
+	public boolean isAdaptive() {
+		return adaptiveController != null;
+	}
+
+	@ManagedAttribute(description = "Current maximum number of exchanges in flight")
+	public int getLanes() {
+		if (adaptiveController != null)
+			return adaptiveController.getLanes();
+		return getConfiguration().getMaxInflight();
+	}
+
+	@ManagedAttribute(description = "Pins the number of exchanges in flight, within bounds")
+	public void setLanes(int lanes) {
+		if (adaptiveController == null)
+			return;
+		adaptiveController.setPinned(true);
+		adaptiveController.setLanes(Math.max(getConfiguration()
+				.getMinInflight(), Math.min(getConfiguration().getMaxInflight(),
+				lanes)));
+	}
+
+	@ManagedAttribute(description = "Current cursor batch size")
+	public int getCursorBatchSize() {
+		if (adaptiveController != null)
+			return adaptiveController.getCursorBatchSize();
+		return getConfiguration().getCursorBatchSize();
+	}
+
+	@ManagedAttribute(description = "Pins the cursor batch size, within bounds")
+	public void setCursorBatchSize(int cursorBatchSize) {
+		if (adaptiveController == null)
+			return;
+		adaptiveController.setPinned(true);
+		adaptiveController.setCursorBatchSize(cursorBatchSize);
+	}
+
+	@ManagedAttribute(description = "Whether the adaptive controller values are pinned")
+	public boolean isPinned() {
+		return adaptiveController != null && adaptiveController.isPinned();
+	}
+
+	@ManagedAttribute(description = "Pins or unpins the adaptive controller values")
+	public void setPinned(boolean pinned) {
+		if (adaptiveController != null)
+			adaptiveController.setPinned(pinned);
+	}
+
+	@ManagedAttribute(description = "Tail lag in milliseconds, as last observed by the adaptive controller")
+	public long getTailLag() {
+		return (adaptiveController == null) ? 0 : adaptiveController
+				.getTailLag();
+	}
+
+	@ManagedAttribute(description = "Average processing time in microseconds, as last observed by the adaptive controller")
+	public long getAverageProcessingTime() {
+		return (adaptiveController == null) ? 0 : TimeUnit.NANOSECONDS
+				.toMicros(adaptiveController.getAverageLatencyNanos());
+	}
+
+	@ManagedAttribute(description = "Ratio of failed exchanges, as last observed by the adaptive controller")
+	public double getErrorRate() {
+		return (adaptiveController == null) ? 0 : adaptiveController
+				.getErrorRate();
+	}
+
+	/**
+	 * @return seconds since the epoch of the checkpointed event, 0 if unknown
+	 */
+	public long getCheckpointTimestamp() {
+		MongoTCCheckpointTracker checkpoints = checkpointTracker;
+		Object checkpoint = (checkpoints == null) ? null : checkpoints
+				.getCheckpoint();
+		if (checkpoint instanceof MongoTCWindowAggregator.WindowCheckpoint)
+			checkpoint = ((MongoTCWindowAggregator.WindowCheckpoint) checkpoint)
+					.getLastTrackedId();
+		return (checkpoint instanceof ObjectId) ? ((ObjectId) checkpoint)
+				.getTimestamp() : 0;
+	}
+
+	@ManagedAttribute(description = "Seconds of events the capped collection keeps at the current ingest rate")
+	public long getRetentionWindow() {
+		MongoTCSizingAdvisor advisor = sizingAdvisor;
+		return (advisor == null) ? 0 : advisor.getRetentionWindow();
+	}
+
+	@ManagedAttribute(description = "Bytes per second ingested by the capped collection")
+	public double getIngestRate() {
+		MongoTCSizingAdvisor advisor = sizingAdvisor;
+		return (advisor == null) ? 0 : advisor.getIngestRate();
+	}
+
+	@ManagedAttribute(description = "Average size in bytes of the events in the capped collection")
+	public double getAverageDocumentSize() {
+		MongoTCSizingAdvisor advisor = sizingAdvisor;
+		return (advisor == null) ? 0 : advisor.getAverageDocumentSize();
+	}
+
+	@ManagedAttribute(description = "Seconds the slowest consumer of the capped collection lags behind its newest event")
+	public long getSlowestConsumerLag() {
+		MongoTCSizingAdvisor advisor = sizingAdvisor;
+		return (advisor == null) ? 0 : advisor.getSlowestConsumerLag();
+	}
+
+	@ManagedAttribute(description = "Per collection priority and time its events wait to be dispatched")
+	public String getPriorityLatencies() {
+		MongoTCPriorityDispatcher dispatcher = priorityDispatcher;
+		return (dispatcher == null) ? null : dispatcher.getLatencies();
+	}
+
+	@ManagedAttribute(description = "Events buffered in priority mode and not yet dispatched")
+	public int getPriorityBufferedEvents() {
+		MongoTCPriorityDispatcher dispatcher = priorityDispatcher;
+		return (dispatcher == null) ? 0 : dispatcher.getBufferedEvents();
+	}
+
+	@ManagedAttribute(description = "Time spent reading tracking documents, connection pool wait included")
+	public String getTrackerReadLatency() {
+		MongoTCTrackerService service = trackerService;
+		return (service == null) ? null : service.getReadLatency();
+	}
+
+	@ManagedAttribute(description = "Time spent writing checkpoints, connection pool wait included")
+	public String getTrackerWriteLatency() {
+		MongoTCTrackerService service = trackerService;
+		return (service == null) ? null : service.getWriteLatency();
+	}
+
+	@ManagedAttribute(description = "Checkpoints waiting for the next bulk write")
+	public int getPendingCheckpoints() {
+		MongoTCTrackerService service = trackerService;
+		return (service == null) ? 0 : service.getPendingCheckpoints();
+	}
+
+	@ManagedAttribute(description = "Events discarded because every window they belong to was emitted")
+	public long getLateEvents() {
+		MongoTCWindowAggregator aggregator = windowAggregator;
+		return (aggregator == null) ? 0 : aggregator.getLateEvents();
 	}
 }
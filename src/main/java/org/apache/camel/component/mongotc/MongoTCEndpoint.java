@@ -20,20 +20,27 @@ import org.apache.camel.Consumer;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.Producer;
-import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.component.mongotc.exceptions.CamelMongoTCException;
 import org.apache.camel.impl.DefaultEndpoint;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.UriEndpoint;
 import org.apache.camel.spi.UriPath;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+
 @UriEndpoint(scheme = "mongomb", title = "MongoDB Based EventSystem", syntax = "mongomb:connectionBean", consumerClass = MongoTCConsumer.class, label = "nosql, event system")
 public class MongoTCEndpoint extends DefaultEndpoint {
 
 	private static final Logger LOG = LoggerFactory
 			.getLogger(MongoTCEndpoint.class);
 
+	private static final int COLLECTION_EXISTS_ERROR_CODE = 48;
+
 	/**
 	 * data needed for exchange interaction
 	 */
@@ -70,13 +77,11 @@ public class MongoTCEndpoint extends DefaultEndpoint {
 	}
 
 	/**
-	 * A producer not needed
+	 * Publishes events to the capped collection
 	 */
 	@Override
 	public Producer createProducer() throws Exception {
-		throw new RuntimeCamelException(
-				"Cannot produce to a MongoDbConsumerEndpoint: "
-						+ getEndpointUri());
+		return new MongoTCProducer(this);
 	}
 
 	@Override
@@ -88,6 +93,11 @@ public class MongoTCEndpoint extends DefaultEndpoint {
 		return consumer;
 	}
 
+	@Override
+	public MongoTCComponent getComponent() {
+		return (MongoTCComponent) super.getComponent();
+	}
+
 	public MongoTCConfiguration getConfiguration() {
 		return configuration;
 	}
@@ -106,6 +116,52 @@ public class MongoTCEndpoint extends DefaultEndpoint {
 		return super.createExchange();
 	}
 
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		if (configuration.isCreateCollection())
+			ensureEventsCollection();
+	}
+
+	/**
+	 * Creates the capped events collection if it does not exist. An existing
+	 * collection must be capped, tailable cursors need it.
+	 */
+	private void ensureEventsCollection() {
+		MongoDatabase db = configuration.getMongoDatabase();
+		String name = configuration.getCollection();
+
+		boolean exists = false;
+		for (String collectionName : db.listCollectionNames())
+			if (collectionName.equals(name)) {
+				exists = true;
+				break;
+			}
+
+		if (!exists) {
+			CreateCollectionOptions options = new CreateCollectionOptions()
+					.capped(true).sizeInBytes(
+							configuration.getCollectionSizeInBytes());
+			if (configuration.getCollectionMaxDocuments() > 0)
+				options.maxDocuments(configuration.getCollectionMaxDocuments());
+			try {
+				db.createCollection(name, options);
+				LOG.info("+ MongoTC - Capped collection {} created: {} bytes",
+						name, configuration.getCollectionSizeInBytes());
+			} catch (MongoCommandException e) {
+				// Created meanwhile by another endpoint
+				if (e.getErrorCode() != COLLECTION_EXISTS_ERROR_CODE)
+					throw e;
+			}
+			return;
+		}
+
+		Document stats = db.runCommand(new Document("collStats", name));
+		if (!stats.getBoolean("capped", false))
+			throw new CamelMongoTCException("Collection " + name
+					+ " exists but it is not capped");
+	}
+
 	public String getConnectionBean() {
 		return connectionBean;
 	}
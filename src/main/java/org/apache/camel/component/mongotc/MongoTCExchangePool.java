@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultMessage;
+import org.apache.camel.util.CaseInsensitiveMap;
+
+/**
+ * Recycles the exchanges, and their in messages, created by a consumer. There
+ * is one pooled exchange per lane: one for synchronous routing or
+ * <code>maxInflight</code> for asynchronous routing.
+ * 
+ * Only safe for <code>InOnly</code> routes that do not keep a reference to the
+ * exchange, or its message, once it completes.
+ */
+public class MongoTCExchangePool {
+
+	private final MongoTCEndpoint endpoint;
+	private final int headersCapacity;
+	private final BlockingQueue<Exchange> exchanges;
+
+	public MongoTCExchangePool(MongoTCEndpoint endpoint, int lanes,
+			int headersCapacity) {
+		this.endpoint = endpoint;
+		this.headersCapacity = headersCapacity;
+		this.exchanges = new ArrayBlockingQueue<Exchange>(lanes);
+	}
+
+	public Exchange acquire() {
+		Exchange exchange = exchanges.poll();
+		if (exchange == null) {
+			exchange = endpoint.createExchange(ExchangePattern.InOnly);
+			exchange.setIn(new PooledMessage(headersCapacity));
+			return exchange;
+		}
+
+		exchange.setExchangeId(null);
+		exchange.setException(null);
+		exchange.setOut(null);
+		exchange.getProperties().clear();
+
+		// Routes may have replaced the in message
+		Message in = exchange.getIn();
+		if (in instanceof PooledMessage)
+			((PooledMessage) in).reset();
+		else
+			exchange.setIn(new PooledMessage(headersCapacity));
+		return exchange;
+	}
+
+	public void release(Exchange exchange) {
+		// A full pool means more lanes than expected, let it go
+		exchanges.offer(exchange);
+	}
+
+	/**
+	 * A message whose headers map is sized for the promoted header fields and
+	 * cleared, not reallocated, on reuse. Attachments are cleared as well.
+	 */
+	static final class PooledMessage extends DefaultMessage {
+
+		private final int headersCapacity;
+
+		PooledMessage(int headersCapacity) {
+			this.headersCapacity = headersCapacity;
+		}
+
+		@Override
+		protected Map<String, Object> createHeaders() {
+			Map<String, Object> map = new CaseInsensitiveMap(headersCapacity);
+			populateInitialHeaders(map);
+			return map;
+		}
+
+		void reset() {
+			setMessageId(null);
+			setBody(null);
+			setFault(false);
+			if (hasHeaders())
+				getHeaders().clear();
+			if (hasAttachments())
+				getAttachments().clear();
+		}
+	}
+}
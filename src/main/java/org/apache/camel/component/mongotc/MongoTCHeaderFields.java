@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.Map;
+
+import org.apache.camel.Message;
+import org.bson.Document;
+
+/**
+ * Promotes document fields to message headers, so routes can branch on
+ * <code>${header[type]}</code> instead of evaluating the body on every choice.
+ * 
+ * Fields are given as a comma separated list of, possibly nested, dot paths.
+ * Each header is named after its path. Missing fields are not promoted.
+ */
+public class MongoTCHeaderFields {
+
+	private final String[] names;
+	private final String[][] paths;
+
+	public MongoTCHeaderFields(String headerFields) {
+		String[] fields = headerFields.split(",");
+		int count = 0;
+		for (String field : fields)
+			if (!field.trim().isEmpty())
+				count++;
+
+		names = new String[count];
+		paths = new String[count][];
+		int i = 0;
+		for (String field : fields) {
+			String name = field.trim();
+			if (name.isEmpty())
+				continue;
+			names[i] = name;
+			paths[i] = name.split("\\.");
+			i++;
+		}
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+
+	public void promote(Document doc, Message message) {
+		for (int i = 0; i < paths.length; i++) {
+			Object value = extract(doc, paths[i]);
+			if (value != null)
+				message.setHeader(names[i], value);
+		}
+	}
+
+	static Object extract(Document doc, String[] path) {
+		Object value = doc;
+		for (String segment : path) {
+			if (!(value instanceof Map))
+				return null;
+			value = ((Map<?, ?>) value).get(segment);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.camel.component.mongotc.exceptions.CamelMongoTCException;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+
+/**
+ * Stores events as compressed BSON inside a thin envelope document:
+ * 
+ * <pre>
+ * { _id: ..., mongotc-codec: "deflate", mongotc-length: 1234, mongotc-payload: BinData(...) }
+ * </pre>
+ * 
+ * The envelope keeps the event <code>_id</code>, so tracking is not affected.
+ * An optional preset dictionary, built from representative events, improves
+ * the ratio of small repetitive documents. Producer and consumer must use the
+ * same dictionary.
+ */
+public class MongoTCPayloadCodec {
+
+	public static final String NONE = "none";
+	public static final String DEFLATE = "deflate";
+
+	public static final String CODEC_FIELD = "mongotc-codec";
+	public static final String LENGTH_FIELD = "mongotc-length";
+	public static final String PAYLOAD_FIELD = "mongotc-payload";
+
+	private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+	private static final int BUFFER_SIZE = 4096;
+
+	private final boolean compress;
+	private final int level;
+	private final byte[] dictionary;
+
+	public MongoTCPayloadCodec(MongoTCConfiguration configuration) {
+		this.compress = DEFLATE.equals(configuration.getPayloadCodec());
+		this.level = configuration.getCompressionLevel();
+		this.dictionary = configuration.getCompressionDictionary();
+	}
+
+	public boolean isCompressing() {
+		return compress;
+	}
+
+	public static boolean isEnvelope(Document doc) {
+		return doc.containsKey(CODEC_FIELD);
+	}
+
+	/**
+	 * @return the envelope for the given event, or the event itself if
+	 *         compression is disabled.
+	 */
+	public Document encode(Document doc) {
+		if (!compress)
+			return doc;
+
+		BasicOutputBuffer buffer = new BasicOutputBuffer();
+		DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), doc, EncoderContext
+				.builder().build());
+		byte[] bson = buffer.toByteArray();
+
+		Deflater deflater = new Deflater(level);
+		try {
+			if (dictionary != null)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(bson);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					bson.length / 2 + 16);
+			byte[] chunk = new byte[BUFFER_SIZE];
+			while (!deflater.finished())
+				out.write(chunk, 0, deflater.deflate(chunk));
+
+			Document envelope = new Document();
+			Object id = doc.get(MongoTCTailingTask.ID_FIELD);
+			if (id != null)
+				envelope.put(MongoTCTailingTask.ID_FIELD, id);
+			envelope.append(CODEC_FIELD, DEFLATE)
+					.append(LENGTH_FIELD, bson.length)
+					.append(PAYLOAD_FIELD, new Binary(out.toByteArray()));
+			return envelope;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return the event carried by the given envelope, with the envelope
+	 *         <code>_id</code>, or the document itself if it is not an
+	 *         envelope.
+	 */
+	public Document decode(Document doc) {
+		if (!isEnvelope(doc))
+			return doc;
+
+		String codec = doc.getString(CODEC_FIELD);
+		if (!DEFLATE.equals(codec))
+			throw new CamelMongoTCException("Unsupported payload codec: "
+					+ codec);
+
+		byte[] compressed = ((Binary) doc.get(PAYLOAD_FIELD)).getData();
+		byte[] bson = new byte[doc.getInteger(LENGTH_FIELD)];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int length = 0;
+			while (length < bson.length) {
+				int inflated = inflater.inflate(bson, length, bson.length
+						- length);
+				if (inflated == 0) {
+					if (inflater.needsDictionary() && dictionary != null)
+						inflater.setDictionary(dictionary);
+					else if (inflater.finished() || inflater.needsInput()
+							|| inflater.needsDictionary())
+						throw new CamelMongoTCException(
+								"Truncated or undecodable payload in event: "
+										+ doc.get(MongoTCTailingTask.ID_FIELD));
+				}
+				length += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new CamelMongoTCException(
+					"Corrupted payload in event: "
+							+ doc.get(MongoTCTailingTask.ID_FIELD), e);
+		} finally {
+			inflater.end();
+		}
+
+		Document event = DOCUMENT_CODEC.decode(
+				new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext
+						.builder().build());
+		Object id = doc.get(MongoTCTailingTask.ID_FIELD);
+		if (id != null)
+			event.put(MongoTCTailingTask.ID_FIELD, id);
+		return event;
+	}
+}
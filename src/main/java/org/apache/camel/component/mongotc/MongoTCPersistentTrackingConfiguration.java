@@ -30,6 +30,7 @@ public class MongoTCPersistentTrackingConfiguration {
 	public static final String TRACKER_COLLECTION_NAME = "tracker";
 	public static final String LAST_TRACK_ID_FIELD = "last-tracked-id";
 	public static final String CONSUMER_ID_FIELD = "consumer-task-id";
+	public static final String LAST_WINDOW_END_FIELD = "last-window-end";
 	public static final long DEFAULT_CURSOR_REGENERATION_DELAY = 1000;
 
 	/**
@@ -0,0 +1,319 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.mongotc.exceptions.CamelMongoTCException;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tails several capped collections, each with a priority, and dispatches
+ * their events from a single thread so that higher priorities go first.
+ * 
+ * Collections are given as <code>name:priority,...</code>. Each one is tailed
+ * into its own bounded buffer. With <code>strict</code> scheduling the
+ * dispatcher always takes from the highest priority buffer with events. With
+ * <code>weighted</code> scheduling buffers are served in proportion to their
+ * priority, so low priorities do not starve.
+ * 
+ * Every collection has its own tracked position, stored under
+ * <code>consumerId.collection</code>. Each dispatched event carries a
+ * {@link PriorityCheckpoint} with the last id dispatched from every
+ * collection.
+ */
+public class MongoTCPriorityDispatcher implements Runnable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCPriorityDispatcher.class);
+
+	public static final String STRICT = "strict";
+	public static final String WEIGHTED = "weighted";
+
+	private static final long POLL_TIMEOUT = 1000;
+
+	private final MongoTCConsumer consumer;
+	private final Lane[] lanes;
+	private final MongoTCPriorityScheduler scheduler;
+
+	/**
+	 * Whether each buffer has events. Only the dispatcher thread uses it.
+	 */
+	private final boolean[] hasEvents;
+
+	/**
+	 * One permit per buffered event, across all buffers
+	 */
+	private final Semaphore available = new Semaphore(0);
+
+	/**
+	 * Last id dispatched from each lane. Only the dispatcher thread uses it.
+	 */
+	private final Object[] lastDispatchedIds;
+
+	private volatile boolean running;
+
+	public MongoTCPriorityDispatcher(MongoTCConsumer consumer,
+			MongoTCConfiguration configuration) {
+		this.consumer = consumer;
+
+		List<Lane> parsed = new ArrayList<Lane>();
+		for (String entry : configuration.getPriorityCollections().split(",")) {
+			String[] parts = entry.trim().split(":");
+			if (parts[0].isEmpty())
+				continue;
+			int priority;
+			try {
+				priority = (parts.length > 1) ? Integer.parseInt(parts[1]
+						.trim()) : 1;
+			} catch (NumberFormatException e) {
+				throw new CamelMongoTCException("Invalid priority for "
+						+ parts[0] + ": " + parts[1], e);
+			}
+			parsed.add(new Lane(parts[0].trim(), Math.max(1, priority),
+					configuration));
+		}
+		Collections.sort(parsed, new Comparator<Lane>() {
+
+			@Override
+			public int compare(Lane a, Lane b) {
+				return b.priority - a.priority;
+			}
+		});
+		this.lanes = parsed.toArray(new Lane[parsed.size()]);
+		this.lastDispatchedIds = new Object[lanes.length];
+
+		int[] priorities = new int[lanes.length];
+		for (int i = 0; i < lanes.length; i++)
+			priorities[i] = lanes[i].priority;
+		this.scheduler = new MongoTCPriorityScheduler(priorities,
+				configuration.getPriorityScheduling());
+		this.hasEvents = new boolean[lanes.length];
+	}
+
+	/**
+	 * Reads the tracked position of every collection and starts tailing them.
+	 */
+	public void start() {
+		MongoTCComponent component = consumer.getEndpoint().getComponent();
+		running = true;
+		for (int i = 0; i < lanes.length; i++) {
+			Lane lane = lanes[i];
+			Object lastTrackedId = (lane.tracker == null) ? null : lane.tracker
+					.fetchLastTrackedId();
+			lastDispatchedIds[i] = lastTrackedId;
+			lane.tailingTask.setLastTrackedId(lastTrackedId);
+			lane.tailingTask.start();
+			component.executeTailing(lane.tailingTask);
+		}
+		component.executeTailing(this);
+	}
+
+	public void stop() {
+		running = false;
+		for (Lane lane : lanes)
+			lane.tailingTask.stop();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				if (!available.tryAcquire(POLL_TIMEOUT, TimeUnit.MILLISECONDS))
+					continue;
+				// Waits while the consumer is suspended
+				if (!consumer.awaitFetching()) {
+					available.release();
+					break;
+				}
+				for (int i = 0; i < lanes.length; i++)
+					hasEvents[i] = !lanes[i].buffer.isEmpty();
+				int index = scheduler.select(hasEvents);
+				Lane lane = lanes[index];
+				Buffered buffered = lane.buffer.poll();
+
+				lane.recordWait(System.nanoTime() - buffered.receivedAt);
+				lastDispatchedIds[index] = buffered.doc
+						.get(MongoTCTailingTask.ID_FIELD);
+				consumer.dispatch(buffered.doc, new PriorityCheckpoint(
+						lastDispatchedIds.clone()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOG.debug("+ MongoTC - Priority dispatcher stopped");
+	}
+
+	/**
+	 * Persists the position of every collection
+	 */
+	public void persist(PriorityCheckpoint checkpoint) {
+		for (int i = 0; i < lanes.length; i++)
+			if (lanes[i].tracker != null && checkpoint.ids[i] != null)
+				lanes[i].tracker.persistLastTrackedId(checkpoint.ids[i]);
+	}
+
+	/**
+	 * @return per collection, its priority and the average and maximum time,
+	 *         in microseconds, its events waited to be dispatched.
+	 */
+	public String getLatencies() {
+		StringBuilder sb = new StringBuilder();
+		for (Lane lane : lanes) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			long count = lane.dispatched.get();
+			sb.append(lane.collection).append('(').append(lane.priority)
+					.append("): avg ")
+					.append(count == 0 ? 0 : TimeUnit.NANOSECONDS
+							.toMicros(lane.totalWaitNanos.get() / count))
+					.append(" us, max ")
+					.append(TimeUnit.NANOSECONDS.toMicros(lane.maxWaitNanos
+							.get())).append(" us, ").append(count)
+					.append(" events");
+		}
+		return sb.toString();
+	}
+
+	public int getBufferedEvents() {
+		return available.availablePermits();
+	}
+
+	/**
+	 * Last id dispatched from every collection, in priority order
+	 */
+	public static final class PriorityCheckpoint {
+
+		private final Object[] ids;
+
+		PriorityCheckpoint(Object[] ids) {
+			this.ids = ids;
+		}
+
+		public Object[] getIds() {
+			return ids;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(ids);
+		}
+	}
+
+	private static final class Buffered {
+
+		private final Document doc;
+		private final long receivedAt;
+
+		Buffered(Document doc, long receivedAt) {
+			this.doc = doc;
+			this.receivedAt = receivedAt;
+		}
+	}
+
+	/**
+	 * @return the consumer task id each collection is tracked under
+	 */
+	static String trackerId(MongoTCConfiguration configuration,
+			String collection) {
+		return configuration.getPersistentTrackingConfiguration()
+				.getConsumerId() + "." + collection;
+	}
+
+	/**
+	 * @return the collections listed in <code>priorityCollections</code>
+	 */
+	static List<String> collectionNames(MongoTCConfiguration configuration) {
+		List<String> names = new ArrayList<String>();
+		for (String entry : configuration.getPriorityCollections().split(",")) {
+			String name = entry.trim().split(":")[0].trim();
+			if (!name.isEmpty())
+				names.add(name);
+		}
+		return names;
+	}
+
+	private final class Lane implements MongoTCDocumentHandler {
+
+		private final String collection;
+		private final int priority;
+		private final BlockingQueue<Buffered> buffer;
+		private final MongoTCTailingTask tailingTask;
+		private final MongoTCTracker tracker;
+
+		private final AtomicLong dispatched = new AtomicLong();
+		private final AtomicLong totalWaitNanos = new AtomicLong();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+
+		Lane(String collection, int priority,
+				MongoTCConfiguration configuration) {
+			this.collection = collection;
+			this.priority = priority;
+			this.buffer = new ArrayBlockingQueue<Buffered>(
+					configuration.getPriorityBufferSize());
+			this.tailingTask = new MongoTCTailingTask(configuration
+					.getTailingMongoDatabase().getCollection(collection),
+					configuration.getCursorRegenerationDelay());
+			this.tailingTask.setBatchSize(configuration.getCursorBatchSize());
+			this.tailingTask.addDocumentHandler(this);
+			this.tracker = configuration.isPersistentTrackingEnable() ? new MongoTCTracker(
+					consumer.getEndpoint().getComponent()
+							.getTrackerService(consumer.getEndpoint()),
+					trackerId(configuration, collection)) : null;
+		}
+
+		/**
+		 * Called from the collection tailing thread. Blocks while the buffer
+		 * is full.
+		 */
+		@Override
+		public void handleDocument(Document doc) {
+			Buffered buffered = new Buffered(doc, System.nanoTime());
+			try {
+				while (running) {
+					if (buffer.offer(buffered, POLL_TIMEOUT,
+							TimeUnit.MILLISECONDS)) {
+						available.release();
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void recordWait(long waitNanos) {
+			dispatched.incrementAndGet();
+			totalWaitNanos.addAndGet(waitNanos);
+			long max = maxWaitNanos.get();
+			while (waitNanos > max
+					&& !maxWaitNanos.compareAndSet(max, waitNanos))
+				max = maxWaitNanos.get();
+		}
+	}
+}
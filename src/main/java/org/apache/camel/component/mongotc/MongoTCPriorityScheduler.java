@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+/**
+ * Chooses the buffer the {@link MongoTCPriorityDispatcher} takes its next
+ * event from. Buffers are indexed by descending priority. Not thread safe.
+ */
+public class MongoTCPriorityScheduler {
+
+	private final int[] priorities;
+	private final boolean weighted;
+	private final int[] currentWeights;
+
+	/**
+	 * @param priorities
+	 *            of every buffer, in descending order.
+	 * @param scheduling
+	 *            {@link MongoTCPriorityDispatcher#STRICT} or
+	 *            {@link MongoTCPriorityDispatcher#WEIGHTED}.
+	 */
+	public MongoTCPriorityScheduler(int[] priorities, String scheduling) {
+		this.priorities = priorities;
+		this.weighted = MongoTCPriorityDispatcher.WEIGHTED.equals(scheduling);
+		this.currentWeights = new int[priorities.length];
+	}
+
+	/**
+	 * @param hasEvents
+	 *            whether each buffer has events. At least one has.
+	 * @return the index of the buffer to take from.
+	 */
+	public int select(boolean[] hasEvents) {
+		return weighted ? selectWeighted(hasEvents) : selectStrict(hasEvents);
+	}
+
+	/**
+	 * The highest priority with events
+	 */
+	private int selectStrict(boolean[] hasEvents) {
+		for (int i = 0; i < hasEvents.length; i++)
+			if (hasEvents[i])
+				return i;
+		throw new IllegalStateException("No buffered events");
+	}
+
+	/**
+	 * Smooth weighted round robin among the buffers with events. Only their
+	 * weights are given back by the selected one, and an empty buffer starts
+	 * over from 0, so shares follow the priorities of the buffers with events
+	 * and a buffer refilling does not win a burst of selections.
+	 */
+	private int selectWeighted(boolean[] hasEvents) {
+		int selected = -1;
+		int activeWeight = 0;
+		for (int i = 0; i < hasEvents.length; i++) {
+			if (!hasEvents[i]) {
+				currentWeights[i] = 0;
+				continue;
+			}
+			currentWeights[i] += priorities[i];
+			activeWeight += priorities[i];
+			if (selected < 0 || currentWeights[i] > currentWeights[selected])
+				selected = i;
+		}
+		if (selected < 0)
+			throw new IllegalStateException("No buffered events");
+		currentWeights[selected] -= activeWeight;
+		return selected;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultProducer;
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Publishes the body of each exchange, a {@link Document} or a {@link Map}, as
+ * an event in the capped collection, encoded with the endpoint payload codec.
+ */
+public class MongoTCProducer extends DefaultProducer {
+
+	private final MongoTCPayloadCodec payloadCodec;
+	private MongoCollection<Document> eventsCollection;
+
+	public MongoTCProducer(MongoTCEndpoint endpoint) {
+		super(endpoint);
+		payloadCodec = new MongoTCPayloadCodec(endpoint.getConfiguration());
+	}
+
+	@Override
+	public MongoTCEndpoint getEndpoint() {
+		return (MongoTCEndpoint) super.getEndpoint();
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		eventsCollection = getEndpoint().getConfiguration()
+				.getEventsCollection();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void process(Exchange exchange) throws Exception {
+		Object body = exchange.getIn().getBody();
+		Document event = (body instanceof Map && !(body instanceof Document)) ? new Document(
+				(Map<String, Object>) body) : exchange.getIn()
+				.getMandatoryBody(Document.class);
+		eventsCollection.insertOne(payloadCodec.encode(event));
+	}
+}
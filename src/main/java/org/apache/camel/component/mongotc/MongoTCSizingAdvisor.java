@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Measures how much history a capped collection keeps, so it can be sized
+ * from data.
+ * 
+ * Every run reads the collection stats and the oldest and newest events. The
+ * ingest rate is the stored bytes over the time they span, from their
+ * <code>ObjectId</code> timestamps, and the retention window is the capped
+ * size over that rate. The lag of the slowest registered consumer is compared
+ * with it: above <code>sizingAlarmRatio</code> of the retention window the
+ * consumer is about to lose events and a warning is logged.
+ */
+public class MongoTCSizingAdvisor implements Runnable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCSizingAdvisor.class);
+
+	private static final Document NATURAL_ORDER = new Document("$natural", 1);
+	private static final Document REVERSE_NATURAL_ORDER = new Document(
+			"$natural", -1);
+
+	private final MongoDatabase database;
+	private final String collection;
+	private final double alarmRatio;
+	private final List<MongoTCConsumer> consumers = new CopyOnWriteArrayList<MongoTCConsumer>();
+
+	private volatile long maxSize;
+	private volatile double averageDocumentSize;
+	private volatile double ingestRate;
+	private volatile long retentionWindow;
+	private volatile long slowestConsumerLag;
+
+	public MongoTCSizingAdvisor(MongoTCConfiguration configuration) {
+		this.database = configuration.getMongoDatabase();
+		this.collection = configuration.getCollection();
+		this.alarmRatio = configuration.getSizingAlarmRatio();
+	}
+
+	public void addConsumer(MongoTCConsumer consumer) {
+		consumers.add(consumer);
+	}
+
+	public void removeConsumer(MongoTCConsumer consumer) {
+		consumers.remove(consumer);
+	}
+
+	public boolean hasConsumers() {
+		return !consumers.isEmpty();
+	}
+
+	@Override
+	public void run() {
+		try {
+			sample();
+		} catch (RuntimeException e) {
+			LOG.warn("+ MongoTC - Unable to sample collection: " + collection,
+					e);
+		}
+	}
+
+	private void sample() {
+
+		Document stats = database.runCommand(new Document("collStats",
+				collection));
+		if (!stats.getBoolean("capped", false)) {
+			LOG.warn("+ MongoTC - Collection {} is not capped", collection);
+			return;
+		}
+		long size = longValue(stats.get("size"));
+		maxSize = longValue(stats.get("maxSize"));
+		averageDocumentSize = (stats.get("avgObjSize") == null) ? 0
+				: ((Number) stats.get("avgObjSize")).doubleValue();
+
+		Document oldest = database.getCollection(collection).find()
+				.sort(NATURAL_ORDER).limit(1).first();
+		Document newest = database.getCollection(collection).find()
+				.sort(REVERSE_NATURAL_ORDER).limit(1).first();
+		long oldestTimestamp = (oldest == null) ? 0 : timestamp(oldest);
+		long newestTimestamp = (newest == null) ? 0 : timestamp(newest);
+		if (oldestTimestamp > 0 && newestTimestamp > oldestTimestamp
+				&& size > 0) {
+			ingestRate = (double) size / (newestTimestamp - oldestTimestamp);
+			retentionWindow = (long) (maxSize / ingestRate);
+		}
+
+		// How far behind the newest event each consumer checkpoint is
+		long lag = 0;
+		for (MongoTCConsumer consumer : consumers) {
+			long checkpointTimestamp = consumer.getCheckpointTimestamp();
+			if (checkpointTimestamp > 0 && newestTimestamp > 0)
+				lag = Math.max(lag, newestTimestamp - checkpointTimestamp);
+		}
+		slowestConsumerLag = lag;
+
+		LOG.info(
+				"+ MongoTC - Collection {}: ingest rate {} bytes/s, average document {} bytes, retention window {} s, slowest consumer lag {} s",
+				new Object[] { collection, (long) ingestRate,
+						(long) averageDocumentSize, retentionWindow,
+						slowestConsumerLag });
+		if (retentionWindow > 0
+				&& slowestConsumerLag > alarmRatio * retentionWindow)
+			LOG.warn(
+					"+ MongoTC - Collection {} keeps {} s of events and its slowest consumer lags {} s behind. Increase its size or events will be lost",
+					new Object[] { collection, retentionWindow,
+							slowestConsumerLag });
+	}
+
+	/**
+	 * @return the capped size in bytes
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return bytes
+	 */
+	public double getAverageDocumentSize() {
+		return averageDocumentSize;
+	}
+
+	/**
+	 * @return bytes per second
+	 */
+	public double getIngestRate() {
+		return ingestRate;
+	}
+
+	/**
+	 * @return seconds of events the collection keeps at the current ingest
+	 *         rate
+	 */
+	public long getRetentionWindow() {
+		return retentionWindow;
+	}
+
+	/**
+	 * @return seconds
+	 */
+	public long getSlowestConsumerLag() {
+		return slowestConsumerLag;
+	}
+
+	/**
+	 * @return seconds, 0 if the event is not identified by an ObjectId
+	 */
+	private static long timestamp(Document doc) {
+		Object id = doc.get(MongoTCTailingTask.ID_FIELD);
+		return (id instanceof ObjectId) ? ((ObjectId) id).getTimestamp() : 0;
+	}
+
+	private static long longValue(Object value) {
+		return (value == null) ? 0 : ((Number) value).longValue();
+	}
+}
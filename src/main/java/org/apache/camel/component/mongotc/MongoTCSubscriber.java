@@ -0,0 +1,294 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A subscription to a shared {@link MongoTCTailingTask}.
+ * 
+ * The tailing thread puts every document into a bounded buffer. A task on the
+ * component delivery pool delivers them to the subscribed consumer, and ends
+ * once the buffer is empty or after <code>DRAIN_BATCH</code> documents, so
+ * an idle or suspended subscriber holds no thread. Each subscriber
+ * keeps its own tracked position: documents with an <code>_id</code> not
+ * greater than it are skipped, so the shared cursor can be rewound for a
+ * subscriber joining behind it.
+ * 
+ * A subscriber whose buffer is full detaches from the shared cursor rather
+ * than hold up the other subscribers. Once its buffer is delivered it catches
+ * up on a cursor of its own, from its tracked position, and subscribes again
+ * when it reaches the shared cursor. A subscriber alone on the shared cursor
+ * has no one to hold up and waits instead.
+ * 
+ * The fetched document is shared with the other subscribers and never
+ * modified. Each subscriber delivers its own deep copy, which the route owns.
+ */
+public class MongoTCSubscriber implements MongoTCDocumentHandler, Runnable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCSubscriber.class);
+
+	private static final long POLL_TIMEOUT = 1000;
+
+	/**
+	 * Documents delivered before giving the thread to other subscribers
+	 */
+	private static final int DRAIN_BATCH = 100;
+
+	private final MongoTCEndpoint endpoint;
+	private final MongoTCDocumentHandler documentHandler;
+	private final BlockingQueue<Document> buffer;
+
+	private volatile boolean running;
+	private volatile boolean paused;
+
+	/**
+	 * Set while a delivery task is scheduled or running
+	 */
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	/**
+	 * Last <code>_id</code> buffered
+	 */
+	private volatile Object lastTrackedId;
+
+	/**
+	 * Set while detached from the shared cursor, and the cursor catching up
+	 * meanwhile.
+	 */
+	private volatile boolean detached;
+	private volatile MongoTCTailingTask catchUpTask;
+
+	public MongoTCSubscriber(MongoTCEndpoint endpoint,
+			MongoTCDocumentHandler documentHandler, int bufferSize,
+			Object lastTrackedId) {
+		this.endpoint = endpoint;
+		this.documentHandler = documentHandler;
+		this.buffer = new ArrayBlockingQueue<Document>(bufferSize);
+		this.lastTrackedId = lastTrackedId;
+	}
+
+	public Object getLastTrackedId() {
+		return lastTrackedId;
+	}
+
+	public int getBufferedDocuments() {
+		return buffer.size();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public boolean isDetached() {
+		return detached;
+	}
+
+	public void start() {
+		running = true;
+	}
+
+	public void stop() {
+		running = false;
+		stopCatchUp();
+		if (!draining.get())
+			buffer.clear();
+	}
+
+	/**
+	 * Deliveries stop while paused and resume with the buffered documents.
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+		if (paused)
+			// Catching up starts over once the buffer is delivered
+			stopCatchUp();
+		else
+			scheduleDelivery();
+	}
+
+	/**
+	 * Called from the shared tailing thread. Detaches from it if the buffer
+	 * is full.
+	 */
+	@Override
+	public void handleDocument(Document doc) {
+		if (detached)
+			return;
+		Object id = doc.get(MongoTCTailingTask.ID_FIELD);
+		if (!MongoTCTailingTask.isBefore(lastTrackedId, id))
+			return;
+		if (buffer.offer(doc)) {
+			lastTrackedId = id;
+			scheduleDelivery();
+			return;
+		}
+		try {
+			while (running) {
+				if (endpoint.getComponent().detach(endpoint, this)) {
+					detached = true;
+					LOG.warn(
+							"+ MongoTC - Subscriber of {} detached from the shared cursor at {}: buffer full",
+							endpoint.getEndpointUri(), lastTrackedId);
+					return;
+				}
+				if (buffer.offer(doc, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					lastTrackedId = id;
+					scheduleDelivery();
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Delivers buffered documents on a thread of the delivery pool.
+	 */
+	@Override
+	public void run() {
+		try {
+			for (int delivered = 0; running && !paused
+					&& delivered < DRAIN_BATCH; delivered++) {
+				Document doc = buffer.poll();
+				if (doc == null)
+					break;
+				documentHandler.handleDocument(copy(doc));
+			}
+		} finally {
+			draining.set(false);
+		}
+
+		if (!running) {
+			LOG.debug("+ MongoTC - Subscriber stopped. {} documents discarded",
+					buffer.size());
+			buffer.clear();
+		} else if (!buffer.isEmpty()) {
+			// More documents, or buffered while finishing
+			scheduleDelivery();
+		} else if (detached && !paused && catchUpTask == null) {
+			startCatchUp();
+		}
+	}
+
+	private void scheduleDelivery() {
+		if (running && !paused && draining.compareAndSet(false, true))
+			endpoint.getComponent().getDeliveryExecutor().execute(this);
+	}
+
+	private void startCatchUp() {
+		MongoTCConfiguration config = endpoint.getConfiguration();
+		MongoTCTailingTask task = new MongoTCTailingTask(
+				config.getTailedEventsCollection(),
+				config.getCursorRegenerationDelay());
+		task.setLastTrackedId(lastTrackedId);
+		task.addDocumentHandler(new CatchUp(task));
+		task.start();
+		catchUpTask = task;
+		endpoint.getComponent().executeTailing(task);
+		LOG.info("+ MongoTC - Subscriber of {} catching up from: {}",
+				endpoint.getEndpointUri(), lastTrackedId);
+	}
+
+	private void stopCatchUp() {
+		MongoTCTailingTask task = catchUpTask;
+		if (task != null) {
+			task.stop();
+			catchUpTask = null;
+		}
+	}
+
+	/**
+	 * Buffers the documents of the catch-up cursor, waiting while the buffer
+	 * is full, until the shared cursor is reached.
+	 */
+	private final class CatchUp implements MongoTCDocumentHandler {
+
+		private final MongoTCTailingTask task;
+
+		CatchUp(MongoTCTailingTask task) {
+			this.task = task;
+		}
+
+		@Override
+		public void handleDocument(Document doc) {
+			Object id = doc.get(MongoTCTailingTask.ID_FIELD);
+			if (!MongoTCTailingTask.isBefore(lastTrackedId, id))
+				return;
+			try {
+				while (running && task.isRunning()) {
+					if (buffer.offer(doc, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+						lastTrackedId = id;
+						scheduleDelivery();
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (running && task.isRunning()
+					&& endpoint.getComponent().isCaughtUp(endpoint,
+							MongoTCSubscriber.this)) {
+				// Shared deliveries resume once this cursor is closed
+				stopCatchUp();
+				detached = false;
+				endpoint.getComponent().subscribe(endpoint,
+						MongoTCSubscriber.this);
+				LOG.info(
+						"+ MongoTC - Subscriber of {} caught up at {}, back on the shared cursor",
+						endpoint.getEndpointUri(), lastTrackedId);
+			}
+		}
+	}
+
+	/**
+	 * Copies documents and lists, at any depth. Other values are immutable or
+	 * not expected to be modified in place.
+	 */
+	static Document copy(Document doc) {
+		Document copy = new Document();
+		for (Map.Entry<String, Object> field : doc.entrySet())
+			copy.put(field.getKey(), copyValue(field.getValue()));
+		return copy;
+	}
+
+	private static Object copyValue(Object value) {
+		if (value instanceof Document)
+			return copy((Document) value);
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<Object>(list.size());
+			for (Object element : list)
+				copy.add(copyValue(element));
+			return copy;
+		}
+		return value;
+	}
+}
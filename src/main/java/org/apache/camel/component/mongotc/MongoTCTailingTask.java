@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.CursorType;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+
+/**
+ * Tails a capped collection and hands every fetched document to the
+ * registered {@link MongoTCDocumentHandler}s, in natural order.
+ * 
+ * A single task may serve several handlers, so several consumers of the same
+ * collection can share one server cursor. When the cursor dies it is
+ * regenerated, after <code>cursorRegenerationDelay</code> milliseconds, from
+ * the last <code>_id</code> fetched. A handler joining behind the cursor
+ * {@link #rewind(Object) rewinds} it; the handlers already ahead skip the
+ * documents fetched again.
+ */
+public class MongoTCTailingTask implements Runnable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCTailingTask.class);
+
+	public static final String ID_FIELD = "_id";
+
+	private static final long BATCH_SIZE_CHANGE_INTERVAL = 10000;
+
+	private final MongoCollection<Document> collection;
+	private final long cursorRegenerationDelay;
+	private final List<MongoTCDocumentHandler> documentHandlers = new CopyOnWriteArrayList<MongoTCDocumentHandler>();
+
+	private volatile boolean running;
+	private volatile MongoCursor<Document> cursor;
+
+	/**
+	 * Cursor batch size, 0 for the driver default. A change is applied by
+	 * regenerating the cursor after the next document, and no sooner than
+	 * <code>BATCH_SIZE_CHANGE_INTERVAL</code> milliseconds after the cursor
+	 * was opened.
+	 */
+	private volatile int batchSize;
+	private volatile boolean regenerate;
+
+	/**
+	 * Batch size of the open cursor and earliest time to change it. Used by
+	 * the tailing thread only.
+	 */
+	private int cursorBatchSize;
+	private long batchSizeChangeTime;
+
+	/**
+	 * Last <code>_id</code> fetched. The cursor is (re)generated from here.
+	 */
+	private volatile Object lastTrackedId;
+
+	/**
+	 * Position requested by {@link #rewind(Object)}, applied when the cursor
+	 * is regenerated. Guarded by <code>this</code>.
+	 */
+	private Object rewindId;
+	private boolean rewindPending;
+
+	public MongoTCTailingTask(MongoCollection<Document> collection,
+			long cursorRegenerationDelay) {
+		this.collection = collection;
+		this.cursorRegenerationDelay = cursorRegenerationDelay;
+	}
+
+	public void addDocumentHandler(MongoTCDocumentHandler documentHandler) {
+		documentHandlers.add(documentHandler);
+	}
+
+	public void removeDocumentHandler(MongoTCDocumentHandler documentHandler) {
+		documentHandlers.remove(documentHandler);
+	}
+
+	public boolean hasDocumentHandlers() {
+		return !documentHandlers.isEmpty();
+	}
+
+	public int getDocumentHandlerCount() {
+		return documentHandlers.size();
+	}
+
+	public Object getLastTrackedId() {
+		return lastTrackedId;
+	}
+
+	public void setLastTrackedId(Object lastTrackedId) {
+		this.lastTrackedId = lastTrackedId;
+	}
+
+	/**
+	 * Regenerates the cursor, after the document being handled, from
+	 * <code>id</code> if it is before the last <code>_id</code> fetched. A
+	 * null <code>id</code> rewinds to the start of the collection.
+	 * <p>
+	 * A handler joining behind the cursor must be added after the rewind is
+	 * requested. A document fetched meanwhile is then handed to no handler
+	 * the rewind was requested for.
+	 */
+	public synchronized void rewind(Object id) {
+		if (!rewindPending || isBefore(id, rewindId))
+			rewindId = id;
+		rewindPending = true;
+		regenerate = true;
+	}
+
+	/**
+	 * @return true if <code>id</code> comes before <code>other</code>. Null
+	 *         comes before any id. Ids that cannot be compared are assumed to
+	 *         come before.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static boolean isBefore(Object id, Object other) {
+		if (id == null)
+			return other != null;
+		if (other == null)
+			return false;
+		if (!(id instanceof Comparable) || id.getClass() != other.getClass())
+			return true;
+		return ((Comparable) id).compareTo(other) < 0;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public void start() {
+		running = true;
+	}
+
+	public void stop() {
+		running = false;
+		// Unblocks a thread awaiting data
+		closeCursor();
+	}
+
+	@Override
+	public void run() {
+
+		while (running) {
+			try {
+				regenerate = false;
+				applyRewind();
+				MongoCursor<Document> c = buildCursor();
+				cursor = c;
+				while (running && !regenerate && c.hasNext()) {
+					Document doc = c.next();
+					Iterator<MongoTCDocumentHandler> handlers = documentHandlers
+							.iterator();
+					// A handler added since with a rewind must not see this
+					// document: it comes again from the rewound cursor.
+					if (regenerate)
+						break;
+					lastTrackedId = doc.get(ID_FIELD);
+					while (handlers.hasNext())
+						handlers.next().handleDocument(doc);
+					if (batchSize != cursorBatchSize
+							&& System.currentTimeMillis() >= batchSizeChangeTime)
+						regenerate = true;
+				}
+			} catch (RuntimeException e) {
+				if (running)
+					LOG.warn("+ MongoTC - Tailable cursor failed on collection: "
+							+ collection.getNamespace(), e);
+			} finally {
+				closeCursor();
+			}
+
+			// Dead cursor, wait before regenerating it
+			if (running && !regenerate) {
+				try {
+					Thread.sleep(cursorRegenerationDelay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					running = false;
+				}
+			}
+		}
+		LOG.debug("+ MongoTC - Tailing task stopped on collection: {}",
+				collection.getNamespace());
+	}
+
+	private synchronized void applyRewind() {
+		if (rewindPending) {
+			if (isBefore(rewindId, lastTrackedId))
+				lastTrackedId = rewindId;
+			rewindPending = false;
+			rewindId = null;
+		}
+	}
+
+	private MongoCursor<Document> buildCursor() {
+		Bson filter = (lastTrackedId == null) ? new Document() : Filters.gt(
+				ID_FIELD, lastTrackedId);
+		LOG.debug("+ MongoTC - Regenerating cursor from: {}", lastTrackedId);
+		FindIterable<Document> find = collection.find(filter).cursorType(
+				CursorType.TailableAwait);
+		cursorBatchSize = batchSize;
+		batchSizeChangeTime = System.currentTimeMillis()
+				+ BATCH_SIZE_CHANGE_INTERVAL;
+		if (cursorBatchSize > 0)
+			find.batchSize(cursorBatchSize);
+		return find.iterator();
+	}
+
+	private void closeCursor() {
+		MongoCursor<Document> c = cursor;
+		if (c != null) {
+			try {
+				c.close();
+			} catch (RuntimeException e) {
+				LOG.trace("+ MongoTC - Exception closing cursor", e);
+			}
+			cursor = null;
+		}
+	}
+}
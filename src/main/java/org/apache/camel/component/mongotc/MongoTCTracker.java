@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.Date;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes the last event processed by a consumer task in the
+ * <code>tracker</code> collection, through the {@link MongoTCTrackerService}
+ * of its database.
+ */
+public class MongoTCTracker {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCTracker.class);
+
+	private final MongoTCTrackerService service;
+	private final String consumerId;
+
+	public MongoTCTracker(MongoTCTrackerService service, String consumerId) {
+		this.service = service;
+		this.consumerId = consumerId;
+	}
+
+	public MongoTCTrackerService getService() {
+		return service;
+	}
+
+	public String getConsumerId() {
+		return consumerId;
+	}
+
+	/**
+	 * @return the tracking document for this consumer task, or null if it has
+	 *         never been tracked.
+	 */
+	public Document fetchTrackingDocument() {
+		return service.fetchTrackingDocument(consumerId);
+	}
+
+	/**
+	 * @return the last tracked id for this consumer task, or null if it has
+	 *         never been tracked.
+	 */
+	public Object fetchLastTrackedId() {
+		Document trackingDoc = fetchTrackingDocument();
+		Object lastTrackedId = (trackingDoc == null) ? null : trackingDoc
+				.get(MongoTCPersistentTrackingConfiguration.LAST_TRACK_ID_FIELD);
+		LOG.debug("+ MongoTC - Consumer task {} last tracked id: {}",
+				consumerId, lastTrackedId);
+		return lastTrackedId;
+	}
+
+	/**
+	 * Checkpoints may be written from several threads. <code>$max</code>
+	 * keeps a late write from moving the tracked id backwards.
+	 */
+	public void persistLastTrackedId(Object lastTrackedId) {
+		service.persist(consumerId, new Document(
+				MongoTCPersistentTrackingConfiguration.LAST_TRACK_ID_FIELD,
+				lastTrackedId));
+	}
+
+	/**
+	 * Persists, along with the tracked id, the end of the last window emitted
+	 * by a windowed consumer.
+	 */
+	public void persistWindowCheckpoint(Object lastTrackedId, Date windowEnd) {
+		Document max = new Document(
+				MongoTCPersistentTrackingConfiguration.LAST_WINDOW_END_FIELD,
+				windowEnd);
+		if (lastTrackedId != null)
+			max.append(
+					MongoTCPersistentTrackingConfiguration.LAST_TRACK_ID_FIELD,
+					lastTrackedId);
+		service.persist(consumerId, max);
+	}
+
+	/**
+	 * Writes the pending checkpoints of every consumer task of the database.
+	 */
+	public void flush() {
+		service.flush();
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Reads and writes the <code>tracker</code> collection of one database on
+ * behalf of every consumer task of the component.
+ * <p>
+ * Tracking documents are read in a single <code>$in</code> query for every
+ * consumer task registered so far and not yet started. Checkpoints are merged
+ * per consumer task and written in periodic unordered bulk writes.
+ * <p>
+ * Reads and writes are timed, including the wait for a pooled connection, so
+ * contention with other traffic on the same client shows up here.
+ */
+public class MongoTCTrackerService implements Runnable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MongoTCTrackerService.class);
+
+	private final MongoCollection<Document> trackerCollection;
+	private final boolean batched;
+
+	/**
+	 * Guards the tracking documents loaded. <code>this</code> guards the
+	 * pending checkpoints only, so that merging a checkpoint never waits for
+	 * the network.
+	 */
+	private final Object loadLock = new Object();
+
+	/**
+	 * Serializes flushes, so a flush returns once every checkpoint merged
+	 * before it is written.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Consumer tasks known from endpoint creation
+	 */
+	private final Set<String> registered = new HashSet<String>();
+
+	/**
+	 * Consumer tasks whose tracking document was loaded and not yet taken,
+	 * and the loaded documents. Consumer tasks without one are loaded but not
+	 * in <code>loadedDocuments</code>.
+	 */
+	private final Set<String> loaded = new HashSet<String>();
+	private final Map<String, Document> loadedDocuments = new HashMap<String, Document>();
+
+	/**
+	 * Consumer tasks that took their tracking document. They are read again
+	 * only if they restart.
+	 */
+	private final Set<String> taken = new HashSet<String>();
+
+	/**
+	 * <code>$max</code> fields waiting to be written, per consumer task
+	 */
+	private Map<String, Document> pending = new LinkedHashMap<String, Document>();
+
+	private final Latency reads = new Latency();
+	private final Latency writes = new Latency();
+
+	public MongoTCTrackerService(MongoCollection<Document> trackerCollection,
+			boolean batched) {
+		this.trackerCollection = trackerCollection;
+		this.batched = batched;
+	}
+
+	public void register(String consumerId) {
+		synchronized (loadLock) {
+			registered.add(consumerId);
+		}
+	}
+
+	/**
+	 * @return the tracking document of a consumer task, or null if it has
+	 *         never been tracked.
+	 */
+	public Document fetchTrackingDocument(String consumerId) {
+		// Pending checkpoints are written first so they are read back
+		flush();
+
+		synchronized (loadLock) {
+			return takeTrackingDocument(consumerId);
+		}
+	}
+
+	private Document takeTrackingDocument(String consumerId) {
+		if (!loaded.contains(consumerId)) {
+			Set<String> ids = new HashSet<String>(registered);
+			ids.removeAll(loaded);
+			ids.removeAll(taken);
+			ids.add(consumerId);
+			long start = System.nanoTime();
+			for (Document doc : trackerCollection.find(Filters.in(
+					MongoTCPersistentTrackingConfiguration.CONSUMER_ID_FIELD,
+					new ArrayList<String>(ids)))) {
+				loadedDocuments.put(doc
+						.getString(MongoTCPersistentTrackingConfiguration.CONSUMER_ID_FIELD),
+						doc);
+			}
+			reads.record(System.nanoTime() - start);
+			loaded.addAll(ids);
+			LOG.debug("+ MongoTC - Loaded {} tracking documents for {} consumer tasks",
+					loadedDocuments.size(), ids.size());
+		}
+		loaded.remove(consumerId);
+		taken.add(consumerId);
+		return loadedDocuments.remove(consumerId);
+	}
+
+	/**
+	 * Writes the <code>$max</code> fields of a consumer task tracking
+	 * document, right away or on the next flush.
+	 */
+	public void persist(String consumerId, Document max) {
+		if (!batched) {
+			long start = System.nanoTime();
+			trackerCollection.updateOne(Filters.eq(
+					MongoTCPersistentTrackingConfiguration.CONSUMER_ID_FIELD,
+					consumerId), new Document("$max", max), new UpdateOptions()
+					.upsert(true));
+			writes.record(System.nanoTime() - start);
+			return;
+		}
+		synchronized (this) {
+			merge(consumerId, max);
+		}
+	}
+
+	/**
+	 * Writes every pending checkpoint in one unordered bulk write. Failed
+	 * checkpoints are retried on the next flush, unless a newer one replaces
+	 * them.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			Map<String, Document> writing;
+			synchronized (this) {
+				if (pending.isEmpty())
+					return;
+				writing = pending;
+				pending = new LinkedHashMap<String, Document>();
+			}
+			write(writing);
+		}
+	}
+
+	private void write(Map<String, Document> writing) {
+		List<WriteModel<Document>> updates = new ArrayList<WriteModel<Document>>(
+				writing.size());
+		for (Map.Entry<String, Document> entry : writing.entrySet()) {
+			updates.add(new UpdateOneModel<Document>(Filters.eq(
+					MongoTCPersistentTrackingConfiguration.CONSUMER_ID_FIELD,
+					entry.getKey()), new Document("$max", entry.getValue()),
+					new UpdateOptions().upsert(true)));
+		}
+		long start = System.nanoTime();
+		try {
+			trackerCollection.bulkWrite(updates,
+					new BulkWriteOptions().ordered(false));
+			writes.record(System.nanoTime() - start);
+			LOG.trace("+ MongoTC - Checkpoints written: {}", updates.size());
+		} catch (RuntimeException e) {
+			LOG.warn("+ MongoTC - Unable to write " + updates.size()
+					+ " checkpoints. Retrying on next flush", e);
+			synchronized (this) {
+				for (Map.Entry<String, Document> entry : writing.entrySet())
+					merge(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		flush();
+	}
+
+	public synchronized int getPendingCheckpoints() {
+		return pending.size();
+	}
+
+	public String getReadLatency() {
+		return reads.toString();
+	}
+
+	public String getWriteLatency() {
+		return writes.toString();
+	}
+
+	/**
+	 * Keeps the greatest value of each field, as <code>$max</code> does. The
+	 * caller holds <code>this</code>.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void merge(String consumerId, Document max) {
+		Document merged = pending.get(consumerId);
+		if (merged == null) {
+			pending.put(consumerId, new Document(max));
+			return;
+		}
+		for (Map.Entry<String, Object> field : max.entrySet()) {
+			Object current = merged.get(field.getKey());
+			Object value = field.getValue();
+			if (current instanceof Comparable
+					&& value != null
+					&& current.getClass() == value.getClass()
+					&& ((Comparable) current).compareTo(value) >= 0)
+				continue;
+			merged.put(field.getKey(), value);
+		}
+	}
+
+	private static final class Latency {
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+				max = maxNanos.get();
+		}
+
+		@Override
+		public String toString() {
+			long n = count.get();
+			return "avg "
+					+ (n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos
+							.get() / n)) + " us, max "
+					+ TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) + " us, "
+					+ n + " operations";
+		}
+	}
+}
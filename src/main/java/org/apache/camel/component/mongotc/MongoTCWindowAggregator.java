@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongotc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Folds events into tumbling or sliding windows and emits one document per
+ * window instead of one exchange per event:
+ * 
+ * <pre>
+ * { windowStart: Date, windowEnd: Date, count: 120, distinctKeys: 2,
+ *   groups: [ { key: "a", count: 100, sum: 12.5, min: 0.1, max: 0.9 }, ... ] }
+ * </pre>
+ * 
+ * Events are grouped by <code>windowKeyField</code>; sum, min and max are
+ * computed over <code>windowValueField</code>, if given. Event time is the
+ * <code>ObjectId</code> timestamp, or the time the event is folded for other
+ * identifiers.
+ * 
+ * Windows are built from panes of <code>windowSlide</code> milliseconds. A
+ * window is emitted when an event of a later pane arrives, or
+ * <code>windowGrace</code> milliseconds after its end if no event arrives.
+ * Each window is dispatched with a {@link WindowCheckpoint} covering every
+ * event that no later window needs, so a restart replays the open windows
+ * and skips events of windows already emitted.
+ */
+public class MongoTCWindowAggregator {
+
+	public static final String WINDOW_START_FIELD = "windowStart";
+	public static final String WINDOW_END_FIELD = "windowEnd";
+	public static final String COUNT_FIELD = "count";
+	public static final String DISTINCT_KEYS_FIELD = "distinctKeys";
+	public static final String GROUPS_FIELD = "groups";
+	public static final String KEY_FIELD = "key";
+	public static final String SUM_FIELD = "sum";
+	public static final String MIN_FIELD = "min";
+	public static final String MAX_FIELD = "max";
+
+	private final Emitter emitter;
+	private final long size;
+	private final long slide;
+	private final long grace;
+	private final String[] keyPath;
+	private final String[] valuePath;
+
+	private final ArrayDeque<Pane> panes = new ArrayDeque<Pane>();
+	private long lastEmittedWindowEnd;
+	private Object lastFoldedId;
+	private long lateEvents;
+
+	public MongoTCWindowAggregator(Emitter emitter,
+			MongoTCConfiguration configuration, Object lastTrackedId,
+			Date lastEmittedWindowEnd) {
+		this.emitter = emitter;
+		this.size = configuration.getWindowSize();
+		this.slide = configuration.getWindowSlide() > 0 ? configuration
+				.getWindowSlide() : size;
+		this.grace = configuration.getWindowGrace();
+		this.keyPath = (configuration.getWindowKeyField() == null) ? null
+				: configuration.getWindowKeyField().split("\\.");
+		this.valuePath = (configuration.getWindowValueField() == null) ? null
+				: configuration.getWindowValueField().split("\\.");
+		this.lastFoldedId = lastTrackedId;
+		this.lastEmittedWindowEnd = (lastEmittedWindowEnd == null) ? 0
+				: lastEmittedWindowEnd.getTime();
+	}
+
+	public synchronized long getLateEvents() {
+		return lateEvents;
+	}
+
+	public synchronized int getOpenPanes() {
+		return panes.size();
+	}
+
+	public synchronized void fold(Document event) {
+
+		Object id = event.get(MongoTCTailingTask.ID_FIELD);
+		long time = (id instanceof ObjectId) ? ((ObjectId) id).getTimestamp() * 1000L
+				: System.currentTimeMillis();
+		long paneStart = time - time % slide;
+
+		// Event time has passed the end of these windows
+		emitUpTo(paneStart);
+
+		if (paneStart < lastEmittedWindowEnd + slide - size) {
+			// Every window it belongs to has been emitted
+			lateEvents++;
+			lastFoldedId = id;
+			return;
+		}
+
+		Pane pane = findPane(paneStart);
+		if (pane == null) {
+			pane = new Pane(paneStart, lastFoldedId);
+			if (panes.isEmpty() || panes.peekLast().start < paneStart)
+				panes.addLast(pane);
+			else
+				insertPane(pane);
+		}
+
+		Object key = (keyPath == null) ? null : MongoTCHeaderFields.extract(
+				event, keyPath);
+		Object value = (valuePath == null) ? null : MongoTCHeaderFields
+				.extract(event, valuePath);
+		pane.fold(key, value);
+		lastFoldedId = id;
+	}
+
+	/**
+	 * Emits the windows that ended <code>grace</code> milliseconds before
+	 * <code>now</code>, when no later event closed them.
+	 */
+	public synchronized void flush(long now) {
+		emitUpTo(now - grace);
+	}
+
+	private void emitUpTo(long time) {
+		while (!panes.isEmpty()) {
+			long end = Math.max(panes.peekFirst().start + slide,
+					lastEmittedWindowEnd + slide);
+			if (end > time)
+				return;
+			emit(end);
+		}
+	}
+
+	private void emit(long end) {
+
+		long start = end - size;
+		Map<Object, Accumulator> groups = new HashMap<Object, Accumulator>();
+		long count = 0;
+		for (Pane pane : panes) {
+			if (pane.start < start)
+				continue;
+			if (pane.start >= end)
+				break;
+			count += pane.count;
+			for (Map.Entry<Object, Accumulator> entry : pane.groups.entrySet()) {
+				Accumulator accumulator = groups.get(entry.getKey());
+				if (accumulator == null) {
+					accumulator = new Accumulator();
+					groups.put(entry.getKey(), accumulator);
+				}
+				accumulator.merge(entry.getValue());
+			}
+		}
+		lastEmittedWindowEnd = end;
+
+		// Drop the panes no later window needs
+		while (!panes.isEmpty() && panes.peekFirst().start < end + slide - size)
+			panes.removeFirst();
+		Object checkpointId = panes.isEmpty() ? lastFoldedId : panes
+				.peekFirst().previousId;
+
+		if (count == 0)
+			return;
+
+		List<Document> groupDocs = new ArrayList<Document>(groups.size());
+		for (Map.Entry<Object, Accumulator> entry : groups.entrySet())
+			groupDocs.add(entry.getValue().toDocument(entry.getKey()));
+
+		Document window = new Document(WINDOW_START_FIELD, new Date(start))
+				.append(WINDOW_END_FIELD, new Date(end))
+				.append(COUNT_FIELD, count)
+				.append(DISTINCT_KEYS_FIELD, groups.size())
+				.append(GROUPS_FIELD, groupDocs);
+		emitter.emit(window, new WindowCheckpoint(checkpointId, new Date(end)));
+	}
+
+	private Pane findPane(long start) {
+		Iterator<Pane> it = panes.descendingIterator();
+		while (it.hasNext()) {
+			Pane pane = it.next();
+			if (pane.start == start)
+				return pane;
+			if (pane.start < start)
+				return null;
+		}
+		return null;
+	}
+
+	private void insertPane(Pane pane) {
+		ArrayDeque<Pane> newer = new ArrayDeque<Pane>();
+		while (!panes.isEmpty() && panes.peekLast().start > pane.start)
+			newer.addFirst(panes.removeLast());
+		panes.addLast(pane);
+		panes.addAll(newer);
+	}
+
+	/**
+	 * Receives the windows, in order, while the aggregator is locked.
+	 */
+	public interface Emitter {
+
+		void emit(Document window, WindowCheckpoint checkpoint);
+	}
+
+	/**
+	 * Checkpoint of a window: the last id no open window needs and the end of
+	 * the window.
+	 */
+	public static final class WindowCheckpoint {
+
+		private final Object lastTrackedId;
+		private final Date windowEnd;
+
+		public WindowCheckpoint(Object lastTrackedId, Date windowEnd) {
+			this.lastTrackedId = lastTrackedId;
+			this.windowEnd = windowEnd;
+		}
+
+		public Object getLastTrackedId() {
+			return lastTrackedId;
+		}
+
+		public Date getWindowEnd() {
+			return windowEnd;
+		}
+	}
+
+	private static final class Pane {
+
+		private final long start;
+
+		/**
+		 * Last id folded before the first event of this pane
+		 */
+		private final Object previousId;
+		private final Map<Object, Accumulator> groups = new HashMap<Object, Accumulator>();
+		private long count;
+
+		Pane(long start, Object previousId) {
+			this.start = start;
+			this.previousId = previousId;
+		}
+
+		void fold(Object key, Object value) {
+			Accumulator accumulator = groups.get(key);
+			if (accumulator == null) {
+				accumulator = new Accumulator();
+				groups.put(key, accumulator);
+			}
+			if (value instanceof Number)
+				accumulator.add(((Number) value).doubleValue());
+			else
+				accumulator.count++;
+			count++;
+		}
+	}
+
+	private static final class Accumulator {
+
+		private long count;
+		private long values;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+
+		void add(double value) {
+			count++;
+			values++;
+			sum += value;
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+
+		void merge(Accumulator other) {
+			count += other.count;
+			values += other.values;
+			sum += other.sum;
+			if (other.min < min)
+				min = other.min;
+			if (other.max > max)
+				max = other.max;
+		}
+
+		Document toDocument(Object key) {
+			Document doc = new Document(KEY_FIELD, key).append(COUNT_FIELD,
+					count);
+			if (values > 0)
+				doc.append(SUM_FIELD, sum).append(MIN_FIELD, min)
+						.append(MAX_FIELD, max);
+			return doc;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.apache.camel.component.mongotc.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * An in memory capped collection with integer <code>_id</code>s, tailed as a
+ * server would: cursors filtered on <code>_id $gt</code> block awaiting data
+ * until a document is inserted or they are closed. Only the operations used
+ * by tailing tasks are supported.
+ */
+public class CappedCollectionStub {
+
+	private static final MongoNamespace NAMESPACE = new MongoNamespace(
+			"eventsms-tests", "events");
+
+	private final List<Document> documents = new ArrayList<Document>();
+
+	public synchronized void insert(int id) {
+		documents.add(new Document("_id", id).append("value", id));
+		notifyAll();
+	}
+
+	public MongoDatabase getDatabase() {
+		final MongoCollection<Document> collection = proxy(
+				MongoCollection.class, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("getNamespace"))
+							return NAMESPACE;
+						if (method.getName().equals("find") && args != null
+								&& args.length == 1)
+							return find((Bson) args[0]);
+						throw new UnsupportedOperationException(method
+								.getName());
+					}
+				});
+		return proxy(MongoDatabase.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getCollection"))
+					return collection;
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private FindIterable<Document> find(Bson filter) {
+		BsonValue gt = filter.toBsonDocument(Document.class,
+				MongoClient.getDefaultCodecRegistry()).get("_id");
+		final int from = (gt == null) ? Integer.MIN_VALUE : ((BsonDocument) gt)
+				.getInt32("$gt").getValue();
+		return proxy(FindIterable.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("iterator"))
+					return new TailableCursor(from);
+				// cursorType, batchSize...
+				return proxy;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<?> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(
+				CappedCollectionStub.class.getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						// toString, hashCode and equals of the handler
+						if (method.getDeclaringClass() == Object.class)
+							return method.invoke(handler, args);
+						return handler.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	private final class TailableCursor implements MongoCursor<Document> {
+
+		private int position;
+		private boolean closed;
+
+		TailableCursor(int from) {
+			synchronized (CappedCollectionStub.this) {
+				while (position < documents.size()
+						&& documents.get(position).getInteger("_id") <= from)
+					position++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			synchronized (CappedCollectionStub.this) {
+				while (!closed && position == documents.size()) {
+					try {
+						CappedCollectionStub.this.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+				return !closed;
+			}
+		}
+
+		@Override
+		public Document next() {
+			synchronized (CappedCollectionStub.this) {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return documents.get(position++);
+			}
+		}
+
+		@Override
+		public Document tryNext() {
+			synchronized (CappedCollectionStub.this) {
+				return (closed || position == documents.size()) ? null
+						: documents.get(position++);
+			}
+		}
+
+		@Override
+		public void close() {
+			synchronized (CappedCollectionStub.this) {
+				closed = true;
+				CappedCollectionStub.this.notifyAll();
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ServerCursor getServerCursor() {
+			return null;
+		}
+
+		@Override
+		public ServerAddress getServerAddress() {
+			return null;
+		}
+	}
+}
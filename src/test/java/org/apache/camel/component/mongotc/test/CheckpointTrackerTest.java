@@ -0,0 +1,102 @@
+package org.apache.camel.component.mongotc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.component.mongotc.MongoTCCheckpointTracker;
+import org.junit.Test;
+
+public class CheckpointTrackerTest {
+
+	@Test
+	public void initialCheckpointUntilFirstCompletion() {
+		MongoTCCheckpointTracker tracker = new MongoTCCheckpointTracker(8,
+				"start");
+		tracker.dispatched("a");
+		assertEquals("start", tracker.getCheckpoint());
+		assertEquals(1, tracker.getPending());
+		assertNull(tracker.takeCheckpointToPersist());
+	}
+
+	@Test
+	public void outOfOrderCompletionHoldsCheckpoint() {
+		MongoTCCheckpointTracker tracker = new MongoTCCheckpointTracker(8,
+				null);
+		long a = tracker.dispatched("a");
+		long b = tracker.dispatched("b");
+		long c = tracker.dispatched("c");
+
+		tracker.completed(c);
+		tracker.completed(b);
+		assertNull(tracker.getCheckpoint());
+		assertEquals(3, tracker.getPending());
+
+		tracker.completed(a);
+		assertEquals("c", tracker.getCheckpoint());
+		assertEquals(0, tracker.getPending());
+		assertEquals("c", tracker.takeCheckpointToPersist());
+		assertNull(tracker.takeCheckpointToPersist());
+	}
+
+	@Test
+	public void windowBoundsDispatch() {
+		MongoTCCheckpointTracker tracker = new MongoTCCheckpointTracker(4,
+				null);
+		long first = tracker.dispatched(0);
+		for (int i = 1; i < 4; i++) {
+			assertTrue(tracker.hasCapacity());
+			tracker.completed(tracker.dispatched(i));
+		}
+		// The first document is a full window behind
+		assertFalse(tracker.hasCapacity());
+
+		tracker.completed(first);
+		assertTrue(tracker.hasCapacity());
+		assertEquals(3, tracker.getCheckpoint());
+	}
+
+	@Test
+	public void concurrentCompletions() throws Exception {
+		final int documents = 100000;
+		final MongoTCCheckpointTracker tracker = new MongoTCCheckpointTracker(
+				256, null);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		final CountDownLatch done = new CountDownLatch(documents);
+
+		List<Long> batch = new ArrayList<Long>();
+		for (int i = 0; i < documents; i++) {
+			while (!tracker.hasCapacity())
+				Thread.yield();
+			batch.add(tracker.dispatched(i));
+			if (batch.size() == 64 || i == documents - 1) {
+				Collections.shuffle(batch);
+				for (final Long sequence : batch) {
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							tracker.completed(sequence);
+							done.countDown();
+						}
+					});
+				}
+				batch = new ArrayList<Long>();
+			}
+		}
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertEquals(documents - 1, tracker.getCheckpoint());
+		assertEquals(0, tracker.getPending());
+	}
+}
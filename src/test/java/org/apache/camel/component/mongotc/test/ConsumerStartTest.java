@@ -0,0 +1,67 @@
+package org.apache.camel.component.mongotc.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ServiceStatus;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mongotc.MongoTCComponent;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+
+/**
+ * Starts and stops a consumer tailing a collection of its own.
+ */
+public class ConsumerStartTest {
+
+	private static final String ROUTE = "mongotc-own-cursor";
+
+	private MongoClient mongo;
+	private CamelContext camelContext;
+
+	@Before
+	public void setUp() throws Exception {
+		mongo = new MongoClient();
+		SimpleRegistry registry = new SimpleRegistry();
+		registry.put("mongoClient", mongo);
+		camelContext = new DefaultCamelContext(registry);
+		camelContext.addRoutes(new RouteBuilder() {
+
+			@Override
+			public void configure() throws Exception {
+				from("mongotc:mongoClient?database=eventsms-tests&collection=start-untailed")
+						.routeId(ROUTE).autoStartup(false).to("log:start?level=OFF");
+			}
+		});
+		camelContext.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (camelContext != null)
+			camelContext.stop();
+		if (mongo != null)
+			mongo.close();
+	}
+
+	@Test
+	public void consumerTailsOnThreadOfTheComponent() throws Exception {
+		camelContext.startRoute(ROUTE);
+		assertEquals(ServiceStatus.Started, camelContext.getRouteStatus(ROUTE));
+
+		ThreadPoolExecutor tailing = (ThreadPoolExecutor) camelContext
+				.getComponent("mongotc", MongoTCComponent.class)
+				.getTailingExecutor();
+		assertEquals(1, tailing.getPoolSize());
+
+		camelContext.stopRoute(ROUTE);
+		assertEquals(ServiceStatus.Stopped, camelContext.getRouteStatus(ROUTE));
+	}
+}
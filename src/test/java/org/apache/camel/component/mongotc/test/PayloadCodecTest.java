@@ -0,0 +1,59 @@
+package org.apache.camel.component.mongotc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.camel.component.mongotc.MongoTCConfiguration;
+import org.apache.camel.component.mongotc.MongoTCPayloadCodec;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class PayloadCodecTest {
+
+	private static Document event(ObjectId id) {
+		return new Document("_id", id).append("type", "telemetry")
+				.append("source", "sensor-0001")
+				.append("values", Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8))
+				.append("location", new Document("site", "north").append("rack", 12));
+	}
+
+	private static MongoTCPayloadCodec codec(byte[] dictionary) {
+		MongoTCConfiguration configuration = new MongoTCConfiguration();
+		configuration.setPayloadCodec(MongoTCPayloadCodec.DEFLATE);
+		configuration.setCompressionDictionary(dictionary);
+		return new MongoTCPayloadCodec(configuration);
+	}
+
+	@Test
+	public void roundTrip() {
+		ObjectId id = new ObjectId();
+		Document envelope = codec(null).encode(event(id));
+
+		assertTrue(MongoTCPayloadCodec.isEnvelope(envelope));
+		assertEquals(id, envelope.get("_id"));
+		assertEquals(event(id), new MongoTCPayloadCodec(
+				new MongoTCConfiguration()).decode(envelope));
+	}
+
+	@Test
+	public void roundTripWithDictionary() {
+		byte[] dictionary = "typetelemetrysourcesensor-valueslocationsitenorthrack"
+				.getBytes();
+		ObjectId id = new ObjectId();
+		MongoTCPayloadCodec codec = codec(dictionary);
+		assertEquals(event(id), codec.decode(codec.encode(event(id))));
+	}
+
+	@Test
+	public void plainDocumentsPassThrough() {
+		Document doc = event(new ObjectId());
+		MongoTCPayloadCodec codec = new MongoTCPayloadCodec(
+				new MongoTCConfiguration());
+		assertSame(doc, codec.encode(doc));
+		assertSame(doc, codec.decode(doc));
+	}
+}
@@ -0,0 +1,68 @@
+package org.apache.camel.component.mongotc.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.camel.component.mongotc.MongoTCPriorityDispatcher;
+import org.apache.camel.component.mongotc.MongoTCPriorityScheduler;
+import org.junit.Test;
+
+public class PrioritySchedulerTest {
+
+	private static final int[] PRIORITIES = { 10, 5, 1 };
+
+	@Test
+	public void strictTakesHighestPriorityWithEvents() {
+		MongoTCPriorityScheduler scheduler = new MongoTCPriorityScheduler(
+				PRIORITIES, MongoTCPriorityDispatcher.STRICT);
+		assertEquals(1, scheduler.select(new boolean[] { false, true, true }));
+		assertEquals(2, scheduler.select(new boolean[] { false, false, true }));
+
+		// Events of a higher priority preempt the lower ones
+		assertEquals(0, scheduler.select(new boolean[] { true, true, true }));
+		assertEquals(0, scheduler.select(new boolean[] { true, true, true }));
+	}
+
+	@Test
+	public void weightedSharesFollowPriorities() {
+		MongoTCPriorityScheduler scheduler = new MongoTCPriorityScheduler(
+				new int[] { 3, 2, 1 }, MongoTCPriorityDispatcher.WEIGHTED);
+		int[] counts = select(scheduler, new boolean[] { true, true, true },
+				600);
+		assertEquals(300, counts[0]);
+		assertEquals(200, counts[1]);
+		assertEquals(100, counts[2]);
+	}
+
+	@Test
+	public void weightedSharesIgnoreEmptyBuffers() {
+		MongoTCPriorityScheduler scheduler = new MongoTCPriorityScheduler(
+				PRIORITIES, MongoTCPriorityDispatcher.WEIGHTED);
+		int[] counts = select(scheduler, new boolean[] { true, false, true },
+				1100);
+		assertEquals(1000, counts[0]);
+		assertEquals(0, counts[1]);
+		assertEquals(100, counts[2]);
+	}
+
+	@Test
+	public void refilledBufferGetsItsShareOnly() {
+		MongoTCPriorityScheduler scheduler = new MongoTCPriorityScheduler(
+				PRIORITIES, MongoTCPriorityDispatcher.WEIGHTED);
+		select(scheduler, new boolean[] { true, false, true }, 999);
+
+		// One round of 16 selections, no burst for the refilled buffer
+		int[] counts = select(scheduler, new boolean[] { true, true, true },
+				16);
+		assertEquals(10, counts[0]);
+		assertEquals(5, counts[1]);
+		assertEquals(1, counts[2]);
+	}
+
+	private static int[] select(MongoTCPriorityScheduler scheduler,
+			boolean[] hasEvents, int selections) {
+		int[] counts = new int[hasEvents.length];
+		for (int i = 0; i < selections; i++)
+			counts[scheduler.select(hasEvents)]++;
+		return counts;
+	}
+}
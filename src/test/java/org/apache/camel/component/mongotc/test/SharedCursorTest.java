@@ -0,0 +1,193 @@
+package org.apache.camel.component.mongotc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.mongotc.MongoTCComponent;
+import org.apache.camel.component.mongotc.MongoTCConfiguration;
+import org.apache.camel.component.mongotc.MongoTCDocumentHandler;
+import org.apache.camel.component.mongotc.MongoTCEndpoint;
+import org.apache.camel.component.mongotc.MongoTCSubscriber;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Subscribers of the shared cursor of a collection, tailed in memory.
+ */
+public class SharedCursorTest {
+
+	private static final long TIMEOUT = 10000;
+
+	private final CappedCollectionStub collection = new CappedCollectionStub();
+	private final List<MongoTCSubscriber> subscribers = new ArrayList<MongoTCSubscriber>();
+	private CamelContext camelContext;
+	private MongoTCComponent component;
+
+	@Before
+	public void setUp() throws Exception {
+		camelContext = new DefaultCamelContext();
+		component = new MongoTCComponent(camelContext);
+		camelContext.addComponent("mongotc", component);
+		camelContext.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (MongoTCSubscriber subscriber : subscribers)
+			subscriber.stop();
+		camelContext.stop();
+	}
+
+	@Test
+	public void everySubscriberGetsItsOwnCopy() throws Exception {
+		Recorder a = new Recorder(null);
+		Recorder b = new Recorder(null);
+		subscribe("a", a, 100, null);
+		subscribe("b", b, 100, null);
+		insert(1, 5);
+
+		assertEquals(range(1, 5), a.awaitValues(5));
+		assertEquals(range(1, 5), b.awaitValues(5));
+		assertNotSame(a.documents.get(0), b.documents.get(0));
+	}
+
+	@Test
+	public void subscriberJoiningBehindRewindsTheCursor() throws Exception {
+		Recorder a = new Recorder(null);
+		subscribe("a", a, 100, null);
+		insert(1, 5);
+		a.awaitValues(5);
+
+		// The shared cursor awaits data: the next document must not reach
+		// the late subscriber before the ones it missed
+		Recorder b = new Recorder(null);
+		subscribe("b", b, 100, 2);
+		insert(6, 6);
+
+		assertEquals(range(3, 6), b.awaitValues(4));
+		assertEquals(range(1, 6), a.awaitValues(6));
+		Thread.sleep(200);
+		assertEquals(range(3, 6), b.values());
+		assertEquals(range(1, 6), a.values());
+	}
+
+	@Test
+	public void slowSubscriberDetachesAndCatchesUp() throws Exception {
+		Recorder fast = new Recorder(null);
+		CountDownLatch gate = new CountDownLatch(1);
+		Recorder slow = new Recorder(gate);
+		subscribe("fast", fast, 100, null);
+		MongoTCSubscriber slowSubscriber = subscribe("slow", slow, 2, null);
+		insert(1, 10);
+
+		// Not held up by the slow subscriber
+		assertEquals(range(1, 10), fast.awaitValues(10));
+		assertTrue(slowSubscriber.isDetached());
+
+		gate.countDown();
+		assertEquals(range(1, 10), slow.awaitValues(10));
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (slowSubscriber.isDetached()) {
+			if (System.currentTimeMillis() > deadline)
+				fail("Subscriber not back on the shared cursor");
+			Thread.sleep(10);
+		}
+
+		insert(11, 11);
+		assertEquals(range(1, 11), fast.awaitValues(11));
+		assertEquals(range(1, 11), slow.awaitValues(11));
+		assertFalse(slowSubscriber.isDetached());
+	}
+
+	private MongoTCSubscriber subscribe(String name, Recorder recorder,
+			int bufferSize, Object lastTrackedId) {
+		MongoTCConfiguration config = new MongoTCConfiguration();
+		config.setDatabase("eventsms-tests");
+		config.setCollection("events");
+		config.setSharedCursor(true);
+		config.setMongoDatabase(collection.getDatabase());
+		MongoTCEndpoint endpoint = new MongoTCEndpoint(
+				"mongotc:mongoClient?sharedCursor=true&name=" + name, component);
+		endpoint.setConfiguration(config);
+		endpoint.setConnectionBean("mongoClient");
+
+		MongoTCSubscriber subscriber = new MongoTCSubscriber(endpoint,
+				recorder, bufferSize, lastTrackedId);
+		subscriber.start();
+		subscribers.add(subscriber);
+		component.subscribe(endpoint, subscriber);
+		return subscriber;
+	}
+
+	private void insert(int from, int to) {
+		for (int id = from; id <= to; id++)
+			collection.insert(id);
+	}
+
+	private static List<Integer> range(int from, int to) {
+		List<Integer> values = new ArrayList<Integer>();
+		for (int value = from; value <= to; value++)
+			values.add(value);
+		return values;
+	}
+
+	/**
+	 * Records the documents delivered, once <code>gate</code> opens.
+	 */
+	private static final class Recorder implements MongoTCDocumentHandler {
+
+		private final CountDownLatch gate;
+		private final List<Document> documents = new ArrayList<Document>();
+
+		Recorder(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		@Override
+		public void handleDocument(Document doc) {
+			if (gate != null) {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			synchronized (this) {
+				documents.add(doc);
+				notifyAll();
+			}
+		}
+
+		synchronized List<Integer> values() {
+			List<Integer> values = new ArrayList<Integer>();
+			for (Document doc : documents)
+				values.add(doc.getInteger("value"));
+			return values;
+		}
+
+		synchronized List<Integer> awaitValues(int count)
+				throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (documents.size() < count) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0)
+					fail("Delivered " + values() + ", expected " + count);
+				TimeUnit.MILLISECONDS.timedWait(this, wait);
+			}
+			return values();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.apache.camel.component.mongotc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.camel.component.mongotc.MongoTCConfiguration;
+import org.apache.camel.component.mongotc.MongoTCWindowAggregator;
+import org.apache.camel.component.mongotc.MongoTCWindowAggregator.WindowCheckpoint;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WindowAggregatorTest {
+
+	// Aligned on every window size used below
+	private static final long T0 = 1600000000000L;
+	private static final long SECOND = 1000;
+
+	private final List<Document> windows = new ArrayList<Document>();
+	private final List<WindowCheckpoint> checkpoints = new ArrayList<WindowCheckpoint>();
+	private MongoTCWindowAggregator.Emitter emitter;
+	private MongoTCConfiguration configuration;
+
+	@Before
+	public void setUp() {
+		emitter = new MongoTCWindowAggregator.Emitter() {
+
+			@Override
+			public void emit(Document window, WindowCheckpoint checkpoint) {
+				windows.add(window);
+				checkpoints.add(checkpoint);
+			}
+		};
+		configuration = new MongoTCConfiguration();
+		configuration.setWindowSize(10 * SECOND);
+		configuration.setWindowGrace(SECOND);
+		configuration.setWindowKeyField("type");
+		configuration.setWindowValueField("value");
+	}
+
+	@Test
+	public void tumblingWindowClosedByLaterEvent() {
+		MongoTCWindowAggregator aggregator = new MongoTCWindowAggregator(
+				emitter, configuration, null, null);
+		aggregator.fold(event(1, "a", 1));
+		aggregator.fold(event(2, "a", 3));
+		Document last = event(5, "b", 2);
+		aggregator.fold(last);
+		assertTrue(windows.isEmpty());
+
+		aggregator.fold(event(11, "a", 1));
+		assertEquals(1, windows.size());
+		Document window = windows.get(0);
+		assertEquals(new Date(T0), window.get("windowStart"));
+		assertEquals(new Date(T0 + 10 * SECOND), window.get("windowEnd"));
+		assertEquals(3L, window.get("count"));
+		assertEquals(2, window.get("distinctKeys"));
+		Document a = group(window, "a");
+		assertEquals(2L, a.get("count"));
+		assertEquals(4.0, a.getDouble("sum"), 0);
+		assertEquals(1.0, a.getDouble("min"), 0);
+		assertEquals(3.0, a.getDouble("max"), 0);
+
+		// No open window needs the events of the emitted one
+		assertEquals(last.get("_id"), checkpoints.get(0).getLastTrackedId());
+		assertEquals(new Date(T0 + 10 * SECOND), checkpoints.get(0)
+				.getWindowEnd());
+	}
+
+	@Test
+	public void slidingWindowsShareEvents() {
+		configuration.setWindowSize(20 * SECOND);
+		configuration.setWindowSlide(10 * SECOND);
+		MongoTCWindowAggregator aggregator = new MongoTCWindowAggregator(
+				emitter, configuration, null, null);
+		Document first = event(1, "a", 1);
+		aggregator.fold(first);
+		aggregator.fold(event(11, "a", 1));
+		aggregator.fold(event(21, "a", 1));
+
+		assertEquals(2, windows.size());
+		assertEquals(new Date(T0 - 10 * SECOND), windows.get(0).get(
+				"windowStart"));
+		assertEquals(1L, windows.get(0).get("count"));
+		// The first pane is still needed by the next window
+		assertNull(checkpoints.get(0).getLastTrackedId());
+
+		assertEquals(new Date(T0), windows.get(1).get("windowStart"));
+		assertEquals(2L, windows.get(1).get("count"));
+		// Only the events before the second pane can be skipped
+		assertEquals(first.get("_id"), checkpoints.get(1).getLastTrackedId());
+	}
+
+	@Test
+	public void lateEventsAreDiscarded() {
+		MongoTCWindowAggregator aggregator = new MongoTCWindowAggregator(
+				emitter, configuration, null, null);
+		aggregator.fold(event(1, "a", 1));
+		aggregator.fold(event(11, "a", 1));
+		assertEquals(1, windows.size());
+
+		aggregator.fold(event(3, "a", 1));
+		assertEquals(1, aggregator.getLateEvents());
+		assertEquals(1, windows.size());
+	}
+
+	@Test
+	public void graceFlushEmitsIdleWindow() {
+		MongoTCWindowAggregator aggregator = new MongoTCWindowAggregator(
+				emitter, configuration, null, null);
+		aggregator.fold(event(1, "a", 1));
+
+		aggregator.flush(T0 + 10 * SECOND + SECOND / 2);
+		assertTrue(windows.isEmpty());
+
+		aggregator.flush(T0 + 11 * SECOND);
+		assertEquals(1, windows.size());
+		assertEquals(1L, windows.get(0).get("count"));
+		assertEquals(0, aggregator.getOpenPanes());
+	}
+
+	@Test
+	public void restartSkipsEmittedWindows() {
+		Document before = event(4, "a", 1);
+		MongoTCWindowAggregator aggregator = new MongoTCWindowAggregator(
+				emitter, configuration, before.get("_id"), new Date(T0 + 10
+						* SECOND));
+
+		// Replayed from the checkpoint: its window was already emitted
+		aggregator.fold(event(5, "a", 1));
+		aggregator.fold(event(12, "b", 2));
+		aggregator.fold(event(21, "a", 1));
+
+		assertEquals(1, aggregator.getLateEvents());
+		assertEquals(1, windows.size());
+		Document window = windows.get(0);
+		assertEquals(new Date(T0 + 10 * SECOND), window.get("windowStart"));
+		assertEquals(1L, window.get("count"));
+		assertEquals(2.0, group(window, "b").getDouble("sum"), 0);
+	}
+
+	private static Document event(int second, String type, double value) {
+		return new Document("_id", new ObjectId(new Date(T0 + second
+				* SECOND))).append("type", type).append("value", value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Document group(Document window, String key) {
+		for (Document group : (List<Document>) window.get("groups"))
+			if (key.equals(group.get("key")))
+				return group;
+		return null;
+	}
+}